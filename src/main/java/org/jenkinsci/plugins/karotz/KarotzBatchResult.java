@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.karotz.action.KarotzAction;
+
+/**
+ * Outcome of each action of a batch, see
+ * {@link KarotzClient#executeBatch(List, KarotzContext)}.
+ */
+public final class KarotzBatchResult {
+
+	/**
+	 * Outcome of an action.
+	 */
+	public enum Status {
+		/**
+		 * Acknowledged by the Karotz
+		 */
+		SENT,
+		/**
+		 * Not sent, the Karotz already showing its effect
+		 */
+		SKIPPED,
+		/**
+		 * Refused by the Karotz, or not delivered
+		 */
+		FAILED,
+		/**
+		 * Not sent, an earlier action of the batch having failed, or the
+		 * notification having been cancelled
+		 */
+		NOT_SENT
+	}
+
+	private final List<KarotzAction> actions;
+
+	private final Status[] statuses;
+
+	private final KarotzException[] failures;
+
+	private long duration;
+
+	KarotzBatchResult(List<? extends KarotzAction> actions) {
+		this.actions = Collections
+				.unmodifiableList(new ArrayList<KarotzAction>(actions));
+		this.statuses = new Status[actions.size()];
+		this.failures = new KarotzException[actions.size()];
+		for (int i = 0; i < statuses.length; i++) {
+			statuses[i] = Status.NOT_SENT;
+		}
+	}
+
+	void set(int index, Status status, KarotzException failure) {
+		statuses[index] = status;
+		failures[index] = failure;
+	}
+
+	void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public List<KarotzAction> getActions() {
+		return actions;
+	}
+
+	/**
+	 * Gets the outcome of an action.
+	 *
+	 * @param index
+	 *            index of the action in the batch
+	 * @return the outcome
+	 */
+	public Status getStatus(int index) {
+		return statuses[index];
+	}
+
+	/**
+	 * Gets the reason an action failed.
+	 *
+	 * @param index
+	 *            index of the action in the batch
+	 * @return the failure, or null if the action did not fail
+	 */
+	public KarotzException getFailure(int index) {
+		return failures[index];
+	}
+
+	/**
+	 * Gets the first failure of the batch.
+	 *
+	 * @return the failure, or null if no action failed
+	 */
+	public KarotzException getFailure() {
+		for (KarotzException failure : failures) {
+			if (failure != null) {
+				return failure;
+			}
+		}
+		return null;
+	}
+
+	public boolean isSuccessful() {
+		return getFailure() == null;
+	}
+
+	/**
+	 * Gets the total duration of the actions sent.
+	 *
+	 * @return the duration in milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Counts the actions with an outcome.
+	 *
+	 * @param status
+	 *            the outcome
+	 * @return number of actions
+	 */
+	public int count(Status status) {
+		int count = 0;
+		for (Status s : statuses) {
+			if (s == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return count(Status.SENT) + " sent, " + count(Status.SKIPPED)
+				+ " skipped, " + count(Status.FAILED) + " failed, "
+				+ count(Status.NOT_SENT) + " not sent";
+	}
+}
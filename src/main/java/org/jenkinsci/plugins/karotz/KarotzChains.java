@@ -0,0 +1,470 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Cause.UpstreamCause;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+import org.jenkinsci.plugins.karotz.notification.KarotzDispatcher;
+import org.jenkinsci.plugins.karotz.notification.KarotzNotification;
+
+/**
+ * Collapses chains of upstream and downstream builds into one announcement.
+ * <p>
+ * A chain is named after its first build, found by following the upstream
+ * causes. While builds of the chain are running or expected, that is
+ * triggered by a successful build with downstream projects, the successes
+ * are held and only the last one is announced, once the chain is over. The
+ * first failure is announced right away, and the rest of the chain is then
+ * silent. The starts of the downstream builds are never announced. A chain
+ * which makes no progress for the configured timeout is announced as it is.
+ * <p>
+ * The chains are kept on disk next to the outbox, so that a held success is
+ * still announced after a restart: the builds running at the time are lost,
+ * and the chain is announced when its downstream builds are over, or after
+ * the timeout.
+ */
+public class KarotzChains {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger.getLogger(KarotzChains.class
+			.getName());
+
+	private static final KarotzChains INSTANCE = new KarotzChains();
+
+	private static final String FILE_NAME = "karotz-chains.xml";
+
+	/**
+	 * Does nothing, when the chains are not kept on disk
+	 */
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() {
+		}
+	};
+
+	/**
+	 * Chains in progress, by id of their first build
+	 */
+	private final Map<String, Chain> chains = new HashMap<String, Chain>();
+
+	/**
+	 * File keeping the chains, null until restored
+	 */
+	private Store store;
+
+	/**
+	 * Version of the last change of the chains
+	 */
+	private long version;
+
+	KarotzChains() {
+	}
+
+	public static KarotzChains get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records the start of a build, which joins the chain of its upstream
+	 * build or starts a chain if it has downstream projects.
+	 *
+	 * @param build
+	 *            the build
+	 * @param config
+	 *            configuration snapshot
+	 */
+	public void started(AbstractBuild<?, ?> build, KarotzConfig config) {
+		Runnable persist;
+		synchronized (this) {
+			String id = getChainId(build);
+			Chain chain = chains.get(id);
+			if (chain == null) {
+				if (getId(build).equals(id) && countDownstream(build) == 0) {
+					// a build on its own
+					return;
+				}
+				chain = new Chain(id);
+				chains.put(id, chain);
+			} else if (chain.expected > 0) {
+				chain.expected--;
+			}
+			chain.running++;
+			touch(chain, config);
+			persist = persist();
+		}
+		persist.run();
+	}
+
+	/**
+	 * Whether an event should be announced right away, or is held or
+	 * silenced as part of a chain.
+	 *
+	 * @param build
+	 *            the build
+	 * @param event
+	 *            the event, already accepted by the rules
+	 * @return true to announce the event now
+	 */
+	public boolean offer(AbstractBuild<?, ?> build, KarotzEvent event) {
+		if (event == KarotzEvent.START) {
+			return build.getCause(UpstreamCause.class) == null;
+		}
+		if (event == KarotzEvent.FLAPPING) {
+			// about the job, not the chain
+			return true;
+		}
+		boolean announced;
+		Runnable persist;
+		synchronized (this) {
+			Chain chain = chains.get(getChainId(build));
+			if (chain == null) {
+				return true;
+			}
+			if (chain.failed) {
+				// the first failure has been announced
+				return false;
+			}
+			if (event == KarotzEvent.FAILURE || event == KarotzEvent.UNSTABLE) {
+				chain.failed = true;
+				chain.held = null;
+				announced = true;
+			} else {
+				chain.held = KarotzNotification.of(build, event);
+				announced = false;
+			}
+			persist = persist();
+		}
+		persist.run();
+		return announced;
+	}
+
+	/**
+	 * Records the end of a build, announcing its chain if it is over.
+	 *
+	 * @param build
+	 *            the completed build
+	 * @param config
+	 *            configuration snapshot
+	 */
+	public void completed(AbstractBuild<?, ?> build, KarotzConfig config) {
+		Runnable persist;
+		synchronized (this) {
+			Chain chain = chains.get(getChainId(build));
+			if (chain == null) {
+				return;
+			}
+			chain.running = Math.max(0, chain.running - 1);
+			if (build.getResult() == Result.SUCCESS) {
+				chain.expected += countDownstream(build);
+			}
+			if (chain.running == 0 && chain.expected == 0) {
+				finish(chain);
+			} else {
+				touch(chain, config);
+			}
+			persist = persist();
+		}
+		persist.run();
+	}
+
+	/**
+	 * Forgets the chains, e.g. when collapsing is disabled.
+	 */
+	public void clear() {
+		Runnable persist;
+		synchronized (this) {
+			for (Chain chain : chains.values()) {
+				if (chain.timeout != null) {
+					chain.timeout.cancel(false);
+				}
+			}
+			chains.clear();
+			persist = persist();
+		}
+		persist.run();
+	}
+
+	/**
+	 * Restores the chains kept on disk, whose builds have been lost with the
+	 * restart.
+	 *
+	 * @param file
+	 *            file keeping the chains
+	 * @param config
+	 *            configuration snapshot, null if the Karotz is not
+	 *            configured
+	 */
+	void restore(File file, KarotzConfig config) {
+		Store restored = new Store(file);
+		List<Chain> kept = restored.load();
+		Runnable persist;
+		synchronized (this) {
+			store = restored;
+			if (config != null && config.isCollapseChains()) {
+				for (Chain chain : kept) {
+					if (!chains.containsKey(chain.id)) {
+						chain.running = 0;
+						chains.put(chain.id, chain);
+						touch(chain, config);
+					}
+				}
+			}
+			persist = persist();
+		}
+		persist.run();
+	}
+
+	/**
+	 * Restores the chains in progress before the restart.
+	 */
+	@Initializer(after = InitMilestone.JOB_LOADED)
+	public static void restore() {
+		INSTANCE.restore(new File(Jenkins.getInstance().getRootDir(),
+				FILE_NAME), Jenkins.getInstance().getDescriptorByType(
+				KarotzPublisherDescriptor.class).getConfig());
+	}
+
+	/**
+	 * Takes a snapshot of the chains, to be written once the lock is
+	 * released.
+	 *
+	 * @return writes the snapshot
+	 */
+	private Runnable persist() {
+		if (store == null) {
+			return NOTHING;
+		}
+		final Store target = store;
+		final List<Chain> snapshot = new ArrayList<Chain>();
+		for (Chain chain : chains.values()) {
+			snapshot.add(chain.copy());
+		}
+		final long snapshotVersion = ++version;
+		return new Runnable() {
+			public void run() {
+				target.write(snapshot, snapshotVersion);
+			}
+		};
+	}
+
+	synchronized int size() {
+		return chains.size();
+	}
+
+	private void timedOut(Chain chain) {
+		Runnable persist;
+		synchronized (this) {
+			if (chains.get(chain.id) != chain) {
+				return;
+			}
+			LOGGER.log(Level.INFO,
+					"The chain of {0} made no progress, announcing it",
+					chain.id);
+			finish(chain);
+			persist = persist();
+		}
+		persist.run();
+	}
+
+	private void finish(Chain chain) {
+		chains.remove(chain.id);
+		if (chain.timeout != null) {
+			chain.timeout.cancel(false);
+		}
+		if (chain.held != null && !chain.failed) {
+			KarotzDispatcher.get().enqueue(chain.held);
+		}
+	}
+
+	private void touch(final Chain chain, KarotzConfig config) {
+		if (chain.timeout != null) {
+			chain.timeout.cancel(false);
+		}
+		chain.timeout = KarotzExecutors.timer().schedule(new Runnable() {
+			public void run() {
+				timedOut(chain);
+			}
+		}, config.getChainTimeout(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the id of the first build of the chain of a build.
+	 *
+	 * @param build
+	 *            the build
+	 * @return the id of the first build, the build itself if it has no
+	 *         upstream build
+	 */
+	static String getChainId(Run<?, ?> build) {
+		UpstreamCause cause = build.getCause(UpstreamCause.class);
+		if (cause == null) {
+			return getId(build);
+		}
+		for (UpstreamCause parent = cause; parent != null; parent = getUpstream(parent)) {
+			cause = parent;
+		}
+		return cause.getUpstreamProject() + '#' + cause.getUpstreamBuild();
+	}
+
+	private static UpstreamCause getUpstream(UpstreamCause cause) {
+		for (Cause upstream : cause.getUpstreamCauses()) {
+			if (upstream instanceof UpstreamCause) {
+				return (UpstreamCause) upstream;
+			}
+		}
+		return null;
+	}
+
+	private static String getId(Run<?, ?> build) {
+		return build.getParent().getFullName() + '#' + build.getNumber();
+	}
+
+	/**
+	 * Counts the downstream projects a build triggers, if successful.
+	 */
+	int countDownstream(AbstractBuild<?, ?> build) {
+		int count = 0;
+		for (AbstractProject<?, ?> project : build.getProject()
+				.getDownstreamProjects()) {
+			if (!project.isDisabled()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A chain in progress.
+	 */
+	private static final class Chain {
+
+		private final String id;
+
+		/**
+		 * Number of builds of the chain running
+		 */
+		private int running;
+
+		/**
+		 * Number of downstream builds triggered but not started yet
+		 */
+		private int expected;
+
+		/**
+		 * Success to announce once the chain is over
+		 */
+		private KarotzNotification held;
+
+		/**
+		 * Whether a failure of the chain has been announced
+		 */
+		private boolean failed;
+
+		private transient ScheduledFuture<?> timeout;
+
+		Chain(String id) {
+			this.id = id;
+		}
+
+		Chain copy() {
+			Chain copy = new Chain(id);
+			copy.running = running;
+			copy.expected = expected;
+			copy.held = held;
+			copy.failed = failed;
+			return copy;
+		}
+	}
+
+	/**
+	 * File keeping the chains.
+	 */
+	private static final class Store {
+
+		private final XmlFile file;
+
+		/**
+		 * Version of the chains last written
+		 */
+		private long version;
+
+		Store(File file) {
+			this.file = new XmlFile(file);
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized List<Chain> load() {
+			if (file.exists()) {
+				try {
+					return (List<Chain>) file.read();
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+				}
+			}
+			return new ArrayList<Chain>();
+		}
+
+		/**
+		 * Writes the chains, unless newer ones have already been written.
+		 */
+		synchronized void write(List<Chain> chains, long version) {
+			if (version <= this.version) {
+				return;
+			}
+			this.version = version;
+			if (chains.isEmpty()) {
+				file.delete();
+				return;
+			}
+			try {
+				file.write(chains);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+			}
+		}
+	}
+}
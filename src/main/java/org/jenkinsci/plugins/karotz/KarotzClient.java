@@ -9,8 +9,13 @@ import java.io.StringReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +24,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.karotz.action.KarotzAction;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.InputSource;
@@ -32,6 +38,11 @@ import org.xml.sax.SAXException;
 public class KarotzClient {
 	private static final int MAX_ATTEMPTS = 6;
 
+	/**
+	 * How long to wait for the other controllers sharing the Karotz
+	 */
+	private static final long LEASE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
 	/**
 	 * Base URL for the START method (auth)
 	 */
@@ -42,6 +53,11 @@ public class KarotzClient {
 	 */
 	private static final String KAROTZ_URL_INTERACTIVE_MODE = "http://api.karotz.com/api/karotz/interactivemode";
 
+	/**
+	 * Base URL for the ears method, used to check a restored session
+	 */
+	private static final String KAROTZ_URL_EARS = "http://api.karotz.com/api/karotz/ears";
+
 	/**
 	 * Logger
 	 */
@@ -49,9 +65,91 @@ public class KarotzClient {
 			.getName());
 
 	/**
-	 * Interactive Id
+	 * Lock guarding the session state, which is shared by all the clients. It
+	 * is never held while waiting for the lease or the Karotz API: a session
+	 * is opened or stopped by one thread, in the OPENING or STOPPING state,
+	 * and the other ones wait for {@link #SESSION_SETTLED}.
+	 */
+	private static final ReentrantLock SESSION_LOCK = new ReentrantLock();
+
+	/**
+	 * Signalled when a session has been opened or stopped
+	 */
+	private static final Condition SESSION_SETTLED = SESSION_LOCK
+			.newCondition();
+
+	/**
+	 * State of the session.
+	 */
+	enum State {
+		/**
+		 * No session
+		 */
+		IDLE,
+		/**
+		 * Being opened
+		 */
+		OPENING,
+		/**
+		 * Open, used by at least one notification
+		 */
+		ACTIVE,
+		/**
+		 * Open, to be stopped once the actions sent are over
+		 */
+		STOP_SCHEDULED,
+		/**
+		 * Being stopped, or handed over
+		 */
+		STOPPING
+	}
+
+	private static State state = State.IDLE;
+
+	/**
+	 * Number of notifications using the session, between their start and stop
+	 * of the interactive mode. The session is only stopped once none is left.
+	 */
+	private static int users;
+
+	/**
+	 * Interactive Id, null when idle. Only changed while holding the lock, and
+	 * read without it by the actions.
+	 */
+	private static volatile String interactiveId;
+
+	/**
+	 * Time at which all the actions sent during the session should be over
+	 */
+	private static long minEndingTime;
+
+	/**
+	 * Pending stop of the interactive mode, if any
+	 */
+	private static ScheduledFuture<?> scheduledStop;
+
+	/**
+	 * Incremented each time a stop is scheduled or cancelled, so that a stop
+	 * which is already running can tell whether it is still wanted
+	 */
+	private static long stopGeneration;
+
+	/**
+	 * Store of the open session, null if the session is not persisted
+	 */
+	private static volatile KarotzSessionStore sessionStore;
+
+	/**
+	 * Version of the state of the session written to the store, so that an
+	 * older state written late does not replace a newer one
 	 */
-	private static String interactiveId;
+	private static long sessionVersion;
+
+	/**
+	 * How long a session is kept open after the end of its actions, as far as
+	 * a restarted Jenkins can tell
+	 */
+	private static final long SESSION_GRACE = TimeUnit.MINUTES.toMillis(1);
 
 	/**
 	 * API Key
@@ -68,7 +166,10 @@ public class KarotzClient {
 	 */
 	private final String installId;
 
-	private long minEndingTime;
+	/**
+	 * Lease on the Karotz shared with other controllers, null if not shared
+	 */
+	private final KarotzDeviceLease lease;
 
 	/**
 	 * Default constructor.
@@ -81,23 +182,316 @@ public class KarotzClient {
 	 *            application Install ID
 	 */
 	public KarotzClient(String apiKey, String secretKey, String installId) {
+		this(apiKey, secretKey, installId, null);
+	}
+
+	/**
+	 * Constructor of a client sharing the Karotz with other controllers.
+	 * 
+	 * @param apiKey
+	 *            application APIKey
+	 * @param secretKey
+	 *            application SecretKey
+	 * @param installId
+	 *            application Install ID
+	 * @param lease
+	 *            lease on the Karotz, null if not shared
+	 */
+	public KarotzClient(String apiKey, String secretKey, String installId,
+			KarotzDeviceLease lease) {
 		this.installId = installId;
 		this.apiKey = apiKey;
 		this.secretKey = secretKey;
+		this.lease = lease;
+	}
+
+	/**
+	 * Sets the store where the open session is persisted.
+	 * 
+	 * @param store
+	 *            the store, null to not persist the session
+	 */
+	public static void setSessionStore(KarotzSessionStore store) {
+		sessionStore = store;
+	}
+
+	/**
+	 * Restores the session persisted before a restart: adopts it if it should
+	 * still be open and the Karotz API still knows it, and stops it
+	 * otherwise. An adopted session is kept open for a grace period, for the
+	 * next notification.
+	 * 
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void restoreSession() throws KarotzException {
+		KarotzSessionStore store = sessionStore;
+		if (store == null) {
+			return;
+		}
+		KarotzSessionStore.Session session = store.load();
+		if (session == null) {
+			return;
+		}
+		String id = session.getInteractiveId();
+		boolean adopt = session.getExpiresAt() > System.currentTimeMillis()
+				&& lease == null
+				&& String.valueOf(installId).equals(session.getInstallId());
+		SESSION_LOCK.lock();
+		try {
+			if (state != State.IDLE) {
+				return;
+			}
+			// a shared Karotz hands sessions over through its lease
+			state = adopt ? State.OPENING : State.STOPPING;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		if (!adopt) {
+			LOGGER.log(Level.INFO, "Stopping orphaned interactive mode {0}", id);
+			stop(id);
+			return;
+		}
+		boolean open = false;
+		Runnable persist;
+		try {
+			open = isOpen(id);
+		} finally {
+			SESSION_LOCK.lock();
+			try {
+				if (open) {
+					LOGGER.log(Level.INFO, "Restored interactive mode {0}", id);
+					interactiveId = id;
+					minEndingTime = System.currentTimeMillis() + SESSION_GRACE;
+					state = State.ACTIVE;
+					scheduleStop();
+				} else {
+					LOGGER.log(Level.INFO,
+							"Interactive mode {0} is not open anymore", id);
+					state = State.IDLE;
+				}
+				persist = persistSession();
+				SESSION_SETTLED.signalAll();
+			} finally {
+				SESSION_LOCK.unlock();
+			}
+			persist.run();
+		}
+	}
+
+	/**
+	 * Checks that a session is still open, with a request which does not
+	 * change the Karotz.
+	 */
+	private boolean isOpen(String id) throws KarotzException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("left", "0");
+		parameters.put("right", "0");
+		parameters.put("relative", "true");
+		parameters.put("interactiveid", id);
+		String result = doRequest(KAROTZ_URL_EARS + '?'
+				+ KarotzUtil.buildQuery(parameters));
+		return "OK".equalsIgnoreCase(parseResponse(result, "code"));
+	}
+
+	/**
+	 * Takes the state of the session to persist, the lock being held. The
+	 * returned task writes it, once the lock is released.
+	 */
+	private Runnable persistSession() {
+		final KarotzSessionStore store = sessionStore;
+		final long version = ++sessionVersion;
+		final KarotzSessionStore.Session session = interactiveId != null ? new KarotzSessionStore.Session(
+				installId, interactiveId, minEndingTime + SESSION_GRACE)
+				: null;
+		return new Runnable() {
+			public void run() {
+				if (store != null) {
+					store.write(session, version);
+				}
+			}
+		};
 	}
 
 	public String getInteractiveId() {
 		return interactiveId;
 	}
 
+	/**
+	 * Gets the lease on the Karotz shared with other controllers.
+	 * 
+	 * @return the lease, null if the Karotz is not shared
+	 */
+	public KarotzDeviceLease getLease() {
+		return lease;
+	}
+
+	/**
+	 * Gets the shadow of the Karotz driven by this client.
+	 * 
+	 * @return the shadow
+	 */
+	public KarotzDeviceShadow getShadow() {
+		return KarotzDeviceShadow.forInstallId(installId);
+	}
+
+	static long getMinEndingTime() {
+		SESSION_LOCK.lock();
+		try {
+			return minEndingTime;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+	}
+
+	static State getState() {
+		SESSION_LOCK.lock();
+		try {
+			return state;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+	}
+
 	public boolean isInteractive() {
 		return interactiveId != null;
 	}
 
-	public synchronized void startInteractiveMode() throws KarotzException {
+	/**
+	 * Starts the interactive mode, or reuses the current session if its stop
+	 * has been scheduled but not yet performed.
+	 * 
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void startInteractiveMode() throws KarotzException {
+		Runnable persist = null;
+		SESSION_LOCK.lock();
+		try {
+			if (cancelScheduledStop()) {
+				LOGGER.log(Level.INFO, "Reusing interactive mode.");
+			}
+			if (ensureOpen()) {
+				persist = persistSession();
+			}
+			users++;
+			state = State.ACTIVE;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		if (persist != null) {
+			persist.run();
+		}
+	}
+
+	/**
+	 * Makes sure a session is open for a while, so that a notification
+	 * expected soon does not have to wait for its start. A session which is
+	 * not used in the meantime is stopped as usual, at the end of the period.
+	 * 
+	 * @param period
+	 *            how long the session should stay open, in milliseconds
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void prewarm(long period) throws KarotzException {
+		long until;
+		Runnable persist;
+		SESSION_LOCK.lock();
+		try {
+			if (state == State.IDLE) {
+				LOGGER.log(Level.INFO, "Prewarming interactive mode.");
+			}
+			ensureOpen();
+			minEndingTime = Math.max(minEndingTime, System.currentTimeMillis()
+					+ period);
+			until = minEndingTime;
+			persist = persistSession();
+			if (users == 0) {
+				// no notification to stop it, stopped at the end of the period
+				scheduleStop();
+			}
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		persist.run();
+		if (lease != null) {
+			lease.renew(until);
+		}
+	}
+
+	/**
+	 * Makes sure a session is open, the lock being held. If none is, this
+	 * thread opens one, releasing the lock meanwhile; the other threads wait
+	 * for it.
+	 * 
+	 * @return true if this thread has opened the session, which is still to
+	 *         be persisted
+	 */
+	private boolean ensureOpen() throws KarotzException {
+		awaitSettled();
 		if (isInteractive()) {
-			return;
+			return false;
+		}
+		state = State.OPENING;
+		String opened = null;
+		SESSION_LOCK.unlock();
+		try {
+			opened = open();
+		} finally {
+			SESSION_LOCK.lock();
+			if (opened != null) {
+				interactiveId = opened;
+				minEndingTime = System.currentTimeMillis();
+				state = State.ACTIVE;
+			} else {
+				state = State.IDLE;
+			}
+			SESSION_SETTLED.signalAll();
 		}
+		return true;
+	}
+
+	/**
+	 * Waits, the lock being held, until no session is being opened or
+	 * stopped by another thread.
+	 */
+	private static void awaitSettled() throws KarotzException {
+		while (state == State.OPENING || state == State.STOPPING) {
+			try {
+				SESSION_SETTLED.await();
+			} catch (InterruptedException e) {
+				throw new KarotzException(e);
+			}
+		}
+	}
+
+	/**
+	 * Opens a session, without the lock: adopts the one handed over by
+	 * another controller, or starts a new one.
+	 *
+	 * @return id of the session
+	 */
+	private String open() throws KarotzException {
+		if (lease != null) {
+			String handedOver = lease.acquire(LEASE_TIMEOUT);
+			if (handedOver != null) {
+				LOGGER.log(Level.INFO, "Adopting interactive mode {0}",
+						handedOver);
+				return handedOver;
+			}
+		}
+		try {
+			return start();
+		} catch (KarotzException e) {
+			if (lease != null) {
+				lease.release(null);
+			}
+			throw e;
+		}
+	}
+
+	private String start() throws KarotzException {
 		Random random = new Random();
 		Map<String, String> parameters = new HashMap<String, String>();
 		parameters.put("apikey", apiKey);
@@ -112,51 +506,328 @@ public class KarotzClient {
 		String result = doRequest(url);
 		LOGGER.log(Level.INFO, "Got: {0}", result);
 
-		interactiveId = parseResponse(result, "interactiveId");
-		if (interactiveId == null) {
+		String id = parseResponse(result, "interactiveId");
+		if (id == null) {
 			String code = parseResponse(result, "code");
-			throw new KarotzException("[code] " + code);
+			throw new KarotzException("[code] " + code, code);
 		}
+		return id;
+	}
 
-		minEndingTime = System.currentTimeMillis();
+	/**
+	 * Schedules the stop of the interactive mode once all the actions sent so
+	 * far are over, and returns immediately. The stop is cancelled if the
+	 * session is reused in the meantime.
+	 * 
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void stopInteractiveMode() throws KarotzException {
+		long until;
+		Runnable persist;
+		SESSION_LOCK.lock();
+		try {
+			users = Math.max(0, users - 1);
+			if (state != State.ACTIVE && state != State.STOP_SCHEDULED) {
+				return;
+			}
+			until = minEndingTime;
+			persist = persistSession();
+			if (users == 0) {
+				// the last notification using the session stops it
+				scheduleStop();
+			}
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		persist.run();
+		if (lease != null) {
+			lease.renew(until);
+		}
 	}
 
-	public synchronized void stopInteractiveMode() throws KarotzException {
-		if (!isInteractive()) {
-			return;
+	private void scheduleStop() {
+		cancelScheduledStop();
+		long delay = Math.max(0, minEndingTime - System.currentTimeMillis());
+		LOGGER.log(Level.INFO, "Stopping interactive mode in " + delay / 1000d
+				+ "s");
+
+		final long generation = stopGeneration;
+		scheduledStop = KarotzExecutors.timer().schedule(new Runnable() {
+			public void run() {
+				stopScheduled(generation);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		state = State.STOP_SCHEDULED;
+	}
+
+	/**
+	 * Stops the interactive mode right now, even if some actions are still
+	 * running.
+	 * 
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void stopInteractiveModeNow() throws KarotzException {
+		String id;
+		SESSION_LOCK.lock();
+		try {
+			cancelScheduledStop();
+			users = 0;
+			awaitSettled();
+			if (!isInteractive()) {
+				return;
+			}
+			id = interactiveId;
+			state = State.STOPPING;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		stop(id);
+	}
+
+	private void stopScheduled(long generation) {
+		String id;
+		SESSION_LOCK.lock();
+		try {
+			if (generation != stopGeneration || state != State.STOP_SCHEDULED
+					|| users > 0) {
+				return;
+			}
+			scheduledStop = null;
+			stopGeneration++;
+			if (minEndingTime > System.currentTimeMillis()) {
+				// actions sent since the stop was scheduled
+				scheduleStop();
+				return;
+			}
+			id = interactiveId;
+			state = State.STOPPING;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		boolean handOver = false;
+		try {
+			handOver = lease != null && lease.hasWaiters();
+		} catch (KarotzException e) {
+			LOGGER.log(Level.WARNING, "Failed to read the lease", e);
+		}
+		try {
+			if (handOver) {
+				handOver(id);
+			} else {
+				stop(id);
+			}
+		} catch (KarotzException e) {
+			LOGGER.log(Level.WARNING, "Failed to stop interactive mode", e);
 		}
+	}
+
+	private boolean cancelScheduledStop() {
+		if (scheduledStop == null) {
+			return false;
+		}
+		scheduledStop.cancel(false);
+		scheduledStop = null;
+		stopGeneration++;
+		return true;
+	}
 
-		awaitActionCompletion();
+	/**
+	 * Stops a session in the STOPPING state, without the lock.
+	 */
+	private void stop(String id) throws KarotzException {
 		LOGGER.log(Level.INFO, "Stopping interactive mode.");
 
 		Map<String, String> parameters = new HashMap<String, String>();
 		parameters.put("action", "stop");
-		parameters.put("interactiveid", interactiveId);
+		parameters.put("interactiveid", id);
 
 		String url = KAROTZ_URL_INTERACTIVE_MODE + '?'
 				+ KarotzUtil.buildQuery(parameters);
 
-		String result = doRequest(url);
-		String code = parseResponse(result, "code");
-		if (!"OK".equalsIgnoreCase(code)
-				&& !"NOT_CONNECTED".equalsIgnoreCase(code)) {
-			throw new KarotzException("[code] " + code);
+		try {
+			String result = doRequest(url);
+			String code = parseResponse(result, "code");
+			if (!"OK".equalsIgnoreCase(code)
+					&& !"NOT_CONNECTED".equalsIgnoreCase(code)) {
+				throw new KarotzException("[code] " + code, code);
+			}
+		} finally {
+			// given up even if the stop failed, the Karotz ends it eventually
+			try {
+				if (lease != null) {
+					lease.release(null);
+				}
+			} finally {
+				stopped();
+			}
 		}
+	}
 
-		interactiveId = null;
+	/**
+	 * Leaves a session in the STOPPING state open for the controller waiting
+	 * for the Karotz, without the lock. If that controller has given up
+	 * waiting meanwhile, nobody adopts the session, which is then reclaimed
+	 * and stopped.
+	 */
+	private void handOver(final String handedOver) throws KarotzException {
+		LOGGER.log(Level.INFO, "Handing interactive mode over.");
+		try {
+			lease.release(handedOver);
+		} finally {
+			stopped();
+		}
+		KarotzExecutors.timer().schedule(new Runnable() {
+			public void run() {
+				reclaim(handedOver);
+			}
+		}, KarotzDeviceLease.HANDOVER_TTL, TimeUnit.MILLISECONDS);
 	}
 
-	private void awaitActionCompletion() {
-		long timeToWait = minEndingTime - System.currentTimeMillis();
-		if (timeToWait > 0) {
-			LOGGER.log(Level.INFO, "Waiting to stop interactive mode: "
-					+ timeToWait / 1000d + "s");
+	/**
+	 * Publishes the end of a session.
+	 */
+	private void stopped() {
+		Runnable persist;
+		SESSION_LOCK.lock();
+		try {
+			interactiveId = null;
+			state = State.IDLE;
+			persist = persistSession();
+			SESSION_SETTLED.signalAll();
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+		persist.run();
+	}
+
+	/**
+	 * Stops a session handed over, unless it has been adopted.
+	 */
+	private void reclaim(String handedOver) {
+		try {
+			SESSION_LOCK.lock();
+			try {
+				awaitSettled();
+				// a new session of ours has replaced it anyway
+				if (isInteractive()) {
+					return;
+				}
+				state = State.STOPPING;
+			} finally {
+				SESSION_LOCK.unlock();
+			}
+			boolean reclaimed = false;
 			try {
-				Thread.sleep(timeToWait);
-			} catch (InterruptedException e1) {
-				LOGGER.log(Level.FINE, "Wait was interrupted...");
+				reclaimed = lease.reclaim(handedOver);
+			} finally {
+				if (!reclaimed) {
+					stopped();
+				}
+			}
+			if (reclaimed) {
+				LOGGER.log(Level.INFO,
+						"Stopping interactive mode {0}, which nobody adopted",
+						handedOver);
+				stop(handedOver);
+			}
+		} catch (KarotzException e) {
+			LOGGER.log(Level.WARNING, "Failed to stop interactive mode", e);
+		}
+	}
+
+	/**
+	 * Executes several actions in a single interactive session, started if
+	 * needed. The actions which would not change the Karotz, as left by the
+	 * actions before them, are skipped, and the duration of the others is
+	 * accounted for at once. The actions are sent in order, over the
+	 * kept-alive connection to the Karotz API, up to the first failure, or
+	 * until the notification is cancelled.
+	 * 
+	 * @param actions
+	 *            the actions
+	 * @param context
+	 *            notification context the actions are prepared for, see
+	 *            {@link KarotzAction#prepare(KarotzContext)}
+	 * @return the outcome of each action
+	 * @throws KarotzException
+	 *             if the interactive mode cannot be started
+	 */
+	public KarotzBatchResult executeBatch(List<? extends KarotzAction> actions,
+			KarotzContext context) throws KarotzException {
+		return executeBatch(actions, context, -1);
+	}
+
+	/**
+	 * Executes several actions in a single interactive session, alongside
+	 * other batches driving the other channels of the Karotz: the session is
+	 * kept open until the longest of them is over, not for their total
+	 * duration.
+	 * 
+	 * @param actions
+	 *            the actions
+	 * @param context
+	 *            notification context the actions are prepared for
+	 * @param start
+	 *            time the batches start at, see {@link #getActionsStart()},
+	 *            or -1 to start after the actions already accounted for
+	 * @return the outcome of each action
+	 * @throws KarotzException
+	 *             if the interactive mode cannot be started
+	 */
+	public KarotzBatchResult executeBatch(List<? extends KarotzAction> actions,
+			KarotzContext context, long start) throws KarotzException {
+		KarotzBatchResult result = new KarotzBatchResult(actions);
+		startInteractiveMode();
+		try {
+			long duration = 0;
+			KarotzDeviceShadow planned = getShadow().copy();
+			boolean[] skipped = new boolean[actions.size()];
+			for (int i = 0; i < skipped.length; i++) {
+				// e.g. the tokens of a speech change its duration
+				actions.get(i).prepare(context);
+				skipped[i] = actions.get(i).plan(planned);
+				if (skipped[i]) {
+					result.set(i, KarotzBatchResult.Status.SKIPPED, null);
+				} else {
+					duration += actions.get(i).getDuration();
+				}
+			}
+			if (start < 0) {
+				addActionDuration(duration);
+			} else {
+				extendActionsUntil(start + duration);
 			}
+			result.setDuration(duration);
+			for (int i = 0; i < skipped.length; i++) {
+				if (skipped[i]) {
+					continue;
+				}
+				if (context.isCancelled()) {
+					break;
+				}
+				try {
+					actions.get(i).send(this);
+					result.set(i, KarotzBatchResult.Status.SENT, null);
+				} catch (KarotzException e) {
+					result.set(i, KarotzBatchResult.Status.FAILED, e);
+					break;
+				}
+			}
+		} finally {
+			stopInteractiveMode();
 		}
+		return result;
+	}
+
+	/**
+	 * Gets the limiter of the requests sent with the API key of this client.
+	 *
+	 * @return the rate limiter
+	 */
+	public KarotzRateLimiter getRateLimiter() {
+		return KarotzRateLimiter.forApiKey(apiKey);
 	}
 
 	/**
@@ -166,7 +837,9 @@ public class KarotzClient {
 	 *            Karotz webAPI URL
 	 * @return response
 	 * @throws KarotzException
-	 *             Network or karotz trouble.
+	 *             Network or karotz trouble, or the request has been put off
+	 *             by the rate limiter, see
+	 *             {@link KarotzException#getRetryAfter()}.
 	 */
 	public String doRequest(String url) throws KarotzException {
 		if (url == null) {
@@ -177,6 +850,10 @@ public class KarotzClient {
 			try {
 				return doRequestAttempt(url);
 			} catch (KarotzException e) {
+				if (e.getRetryAfter() > 0) {
+					// the caller sends it again later, no thread waits for it
+					throw e;
+				}
 				long backoffTime = (long) (1000 * Math.pow(3, attempt));
 				LOGGER.log(Level.INFO, "Retrying in " + backoffTime / 1000
 						+ "s... (" + e.getMessage() + ")");
@@ -188,9 +865,23 @@ public class KarotzClient {
 	}
 
 	private void waitBeforeRetrying(long backoffTime) throws KarotzException {
+		if (lease != null) {
+			// the lease must not expire while the request is retried
+			try {
+				lease.renew(Math.max(getActionsStart(), System.currentTimeMillis()
+						+ backoffTime));
+			} catch (KarotzException e) {
+				LOGGER.log(Level.WARNING, "Failed to renew the lease", e);
+			}
+		}
 		try {
 			Thread.sleep(backoffTime);
-			minEndingTime += backoffTime;
+			SESSION_LOCK.lock();
+			try {
+				minEndingTime += backoffTime;
+			} finally {
+				SESSION_LOCK.unlock();
+			}
 		} catch (InterruptedException e) {
 			LOGGER.log(Level.FINE, "Wait was interrupted...");
 			throw new KarotzException(e);
@@ -198,20 +889,41 @@ public class KarotzClient {
 	}
 
 	private String doRequestAttempt(String url) throws KarotzException {
+		if (isStop(url)) {
+			// stopping frees the Karotz, it is never put off
+			getRateLimiter().acquireNow();
+		} else {
+			long delay = getRateLimiter().tryAcquire();
+			if (delay > 0) {
+				throw new KarotzException("Throttled for " + delay + "ms",
+						delay);
+			}
+		}
+
 		String result;
+		InputStream inputStream = null;
 		try {
 			URLConnection connection = ProxyConfiguration.open(new URL(url));
 			connection.connect();
-			InputStream inputStream = connection.getInputStream();
+			inputStream = connection.getInputStream();
 			result = IOUtils.toString(inputStream);
 			LOGGER.log(Level.FINE, "result is {0}", result);
 		} catch (IOException e) {
 			throw new KarotzException(e);
+		} finally {
+			// a response read to the end and closed lets the connection be
+			// kept alive and reused by the next request
+			IOUtils.closeQuietly(inputStream);
 		}
 
 		return result;
 	}
 
+	private static boolean isStop(String url) {
+		return url.startsWith(KAROTZ_URL_INTERACTIVE_MODE + '?')
+				&& url.contains("action=stop");
+	}
+
 	/**
 	 * Parses response from karotz.
 	 * 
@@ -260,7 +972,51 @@ public class KarotzClient {
 				Util.rawEncode(signedQuery));
 	}
 
+	/**
+	 * Adds the duration of an action which has just been sent to the time
+	 * the session has to be kept open.
+	 * 
+	 * @param duration
+	 *            duration of the action in milliseconds
+	 */
 	public void addActionDuration(long duration) {
-		minEndingTime += duration;
+		SESSION_LOCK.lock();
+		try {
+			minEndingTime = Math.max(minEndingTime, System.currentTimeMillis())
+					+ duration;
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Gets the time the actions sent now start at, once the actions already
+	 * accounted for are over.
+	 * 
+	 * @return the time in milliseconds
+	 */
+	public long getActionsStart() {
+		SESSION_LOCK.lock();
+		try {
+			return Math.max(minEndingTime, System.currentTimeMillis());
+		} finally {
+			SESSION_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Keeps the session open at least until a given time, e.g. the end of
+	 * actions running alongside others.
+	 * 
+	 * @param until
+	 *            the time in milliseconds
+	 */
+	public void extendActionsUntil(long until) {
+		SESSION_LOCK.lock();
+		try {
+			minEndingTime = Math.max(minEndingTime, until);
+		} finally {
+			SESSION_LOCK.unlock();
+		}
 	}
 }
@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.AbstractBuild;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+import org.jenkinsci.plugins.karotz.eventhandler.KarotzDefaultEventHandler;
+import org.jenkinsci.plugins.karotz.eventhandler.KarotzEventHandler;
+import org.jenkinsci.plugins.karotz.notification.KarotzFairQueue;
+import org.jenkinsci.plugins.karotz.notification.KarotzOutbox;
+
+/**
+ * Immutable snapshot of the global configuration.
+ * <p>
+ * A new snapshot is created each time the configuration is saved, and is
+ * handed down to the notifications through a {@link KarotzContext}, so that a
+ * notification always sees a consistent configuration.
+ */
+public final class KarotzConfig {
+
+	private final String apiKey;
+
+	private final String secretKey;
+
+	private final String installId;
+
+	private final KarotzEventHandler eventHandler;
+
+	private final double requestsPerSecond;
+
+	private final int burstSize;
+
+	private final boolean concurrentChannels;
+
+	private final KarotzEarconMode earconMode;
+
+	private final long earconDuration;
+
+	private final boolean radiatorMode;
+
+	/**
+	 * Jobs shown by the radiator, null for all the jobs
+	 */
+	private final Pattern radiatorJobs;
+
+	private final boolean globalMode;
+
+	/**
+	 * Jobs announced in global mode, null for all the jobs
+	 */
+	private final Pattern globalJobs;
+
+	/**
+	 * Whether the session is opened shortly before builds are expected to end
+	 */
+	private final boolean prewarm;
+
+	/**
+	 * Rules choosing the builds announced
+	 */
+	private final KarotzRules rules;
+
+	/**
+	 * Whether the Karotz is shared between folders instead of jobs
+	 */
+	private final boolean fairShareByFolder;
+
+	/**
+	 * Weight of each job or folder
+	 */
+	private final Map<String, Integer> fairShareWeights;
+
+	/**
+	 * Maximum number of pending notifications of a job
+	 */
+	private final int fairShareCap;
+
+	/**
+	 * Whether chains of upstream and downstream builds are announced once
+	 */
+	private final boolean collapseChains;
+
+	/**
+	 * Time a chain of builds may make no progress, in milliseconds
+	 */
+	private final long chainTimeout;
+
+	/**
+	 * Whether the jobs flapping between failure and success are silenced
+	 */
+	private final boolean flapDetection;
+
+	/**
+	 * Name of the earcon of each event in the cache
+	 */
+	private final Map<KarotzEvent, String> earconNames;
+
+	/**
+	 * Client shared by all the notifications using this configuration
+	 */
+	private final KarotzClient client;
+
+	KarotzConfig(KarotzPublisherDescriptor descriptor) {
+		this.apiKey = descriptor.getApiKey();
+		this.secretKey = descriptor.getSecretKey();
+		this.installId = descriptor.getInstallId();
+		this.eventHandler = descriptor.getEventHandler() != null ? descriptor
+				.getEventHandler() : new KarotzDefaultEventHandler();
+		this.requestsPerSecond = descriptor.getRequestsPerSecond();
+		this.burstSize = descriptor.getBurstSize();
+		this.concurrentChannels = descriptor.isConcurrentChannels();
+		this.earconMode = descriptor.getEarconMode();
+		this.earconDuration = descriptor.getEarconDuration();
+		this.radiatorMode = descriptor.isRadiatorMode();
+		this.radiatorJobs = compile(descriptor.getRadiatorJobs());
+		this.globalMode = descriptor.isGlobalMode();
+		this.globalJobs = compile(descriptor.getGlobalJobs());
+		this.prewarm = descriptor.isPrewarm();
+		this.rules = KarotzRules.compile(descriptor.getRules());
+		this.fairShareByFolder = descriptor.isFairShareByFolder();
+		this.fairShareWeights = Collections.unmodifiableMap(KarotzFairQueue
+				.parseWeights(descriptor.getFairShareWeights()));
+		this.fairShareCap = descriptor.getFairShareCap();
+		this.collapseChains = descriptor.isCollapseChains();
+		this.chainTimeout = TimeUnit.MINUTES.toMillis(descriptor
+				.getChainTimeout());
+		this.flapDetection = descriptor.isFlapDetection();
+		Map<KarotzEvent, String> names = new EnumMap<KarotzEvent, String>(
+				KarotzEvent.class);
+		for (KarotzEvent event : KarotzEvent.values()) {
+			String name = descriptor.getEarconName(event);
+			if (name != null) {
+				names.put(event, name);
+			}
+		}
+		this.earconNames = Collections.unmodifiableMap(names);
+		this.client = new KarotzClient(apiKey, secretKey, installId,
+				descriptor.getLeaseFile() != null ? KarotzDeviceLease
+						.forFile(new File(descriptor.getLeaseFile())) : null);
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	public String getSecretKey() {
+		return secretKey;
+	}
+
+	public String getInstallId() {
+		return installId;
+	}
+
+	public KarotzEventHandler getEventHandler() {
+		return eventHandler;
+	}
+
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public int getBurstSize() {
+		return burstSize;
+	}
+
+	public boolean isConcurrentChannels() {
+		return concurrentChannels;
+	}
+
+	public KarotzEarconMode getEarconMode() {
+		return earconMode;
+	}
+
+	public long getEarconDuration() {
+		return earconDuration;
+	}
+
+	public boolean isRadiatorMode() {
+		return radiatorMode;
+	}
+
+	/**
+	 * Whether a job is shown by the radiator.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @return true if the job is shown
+	 */
+	public boolean isRadiatorJob(String jobName) {
+		return matches(radiatorJobs, jobName);
+	}
+
+	public boolean isGlobalMode() {
+		return globalMode;
+	}
+
+	/**
+	 * Whether a job is announced in global mode.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @return true if the job is announced
+	 */
+	public boolean isGlobalJob(String jobName) {
+		return matches(globalJobs, jobName);
+	}
+
+	public boolean isPrewarm() {
+		return prewarm;
+	}
+
+	public KarotzRules getRules() {
+		return rules;
+	}
+
+	/**
+	 * Gets how the notifications are grouped to share the Karotz.
+	 *
+	 * @return the grouping by folder or by job
+	 */
+	public KarotzOutbox.Key getFairShareKey() {
+		return fairShareByFolder ? KarotzFairQueue.FOLDER : KarotzFairQueue.JOB;
+	}
+
+	public Map<String, Integer> getFairShareWeights() {
+		return fairShareWeights;
+	}
+
+	public int getFairShareCap() {
+		return fairShareCap;
+	}
+
+	public boolean isCollapseChains() {
+		return collapseChains;
+	}
+
+	/**
+	 * Gets the time a chain of builds may make no progress before it is
+	 * announced.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public long getChainTimeout() {
+		return chainTimeout;
+	}
+
+	public boolean isFlapDetection() {
+		return flapDetection;
+	}
+
+	/**
+	 * Gets the event to announce for a build, once the flapping jobs are
+	 * taken into account.
+	 *
+	 * @param build
+	 *            the build
+	 * @param event
+	 *            the event of the build
+	 * @return the event, {@link KarotzEvent#FLAPPING}, or null if the job is
+	 *         flapping
+	 */
+	public KarotzEvent checkFlapping(AbstractBuild<?, ?> build,
+			KarotzEvent event) {
+		if (!flapDetection) {
+			return event;
+		}
+		return KarotzFlapDetector.get().offer(
+				build.getProject().getFullName(), event);
+	}
+
+	/**
+	 * Gets the URL of the earcon of an event. The URL is resolved each time,
+	 * since the root URL of Jenkins may be unknown at startup or change later.
+	 *
+	 * @param event
+	 *            the event
+	 * @return the URL, or null if the event has no earcon or the root URL of
+	 *         Jenkins is unknown
+	 */
+	public String getEarconUrl(KarotzEvent event) {
+		return KarotzEarcons.getUrl(earconNames.get(event));
+	}
+
+	public KarotzClient getClient() {
+		return client;
+	}
+
+	private static Pattern compile(String regex) {
+		return regex != null ? Pattern.compile(regex) : null;
+	}
+
+	private static boolean matches(Pattern pattern, String jobName) {
+		return pattern == null || pattern.matcher(jobName).matches();
+	}
+}
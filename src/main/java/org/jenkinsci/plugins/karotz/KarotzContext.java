@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+
+/**
+ * Everything a notification needs, handed down from the publisher to the
+ * event handler and to each action.
+ */
+public class KarotzContext {
+
+	private final AbstractBuild<?, ?> build;
+
+	private final TaskListener listener;
+
+	private final KarotzConfig config;
+
+	private final KarotzClient client;
+
+	private final KarotzDegradation degradation;
+
+	/**
+	 * Event being announced, null if not known
+	 */
+	private final KarotzEvent event;
+
+	/**
+	 * Whether the notification is not worth finishing anymore
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param build
+	 *            the build being notified
+	 * @param listener
+	 *            listener used to report problems
+	 * @param config
+	 *            configuration snapshot
+	 */
+	public KarotzContext(AbstractBuild<?, ?> build, TaskListener listener,
+			KarotzConfig config) {
+		this(build, listener, config, config.getClient());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param build
+	 *            the build being notified
+	 * @param listener
+	 *            listener used to report problems
+	 * @param config
+	 *            configuration snapshot
+	 * @param client
+	 *            client used to send the actions
+	 */
+	public KarotzContext(AbstractBuild<?, ?> build, TaskListener listener,
+			KarotzConfig config, KarotzClient client) {
+		this(build, listener, config, client, KarotzDegradation.NONE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param build
+	 *            the build being notified
+	 * @param listener
+	 *            listener used to report problems
+	 * @param config
+	 *            configuration snapshot
+	 * @param client
+	 *            client used to send the actions
+	 * @param degradation
+	 *            how much the notification is cut down
+	 */
+	public KarotzContext(AbstractBuild<?, ?> build, TaskListener listener,
+			KarotzConfig config, KarotzClient client,
+			KarotzDegradation degradation) {
+		this(build, listener, config, client, degradation, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param build
+	 *            the build being notified
+	 * @param listener
+	 *            listener used to report problems
+	 * @param config
+	 *            configuration snapshot
+	 * @param client
+	 *            client used to send the actions
+	 * @param degradation
+	 *            how much the notification is cut down
+	 * @param event
+	 *            event being announced
+	 */
+	public KarotzContext(AbstractBuild<?, ?> build, TaskListener listener,
+			KarotzConfig config, KarotzClient client,
+			KarotzDegradation degradation, KarotzEvent event) {
+		this.build = build;
+		this.listener = listener;
+		this.config = config;
+		this.client = client;
+		this.degradation = degradation;
+		this.event = event;
+	}
+
+	public AbstractBuild<?, ?> getBuild() {
+		return build;
+	}
+
+	public TaskListener getListener() {
+		return listener;
+	}
+
+	public KarotzConfig getConfig() {
+		return config;
+	}
+
+	public KarotzClient getClient() {
+		return client;
+	}
+
+	public KarotzDegradation getDegradation() {
+		return degradation;
+	}
+
+	public KarotzEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * Cancels the notification: the actions not sent yet are not sent.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
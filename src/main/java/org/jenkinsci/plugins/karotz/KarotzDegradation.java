@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+/**
+ * How much the notifications are cut down while the backlog is too long for
+ * the Karotz to keep up. Each level includes the previous ones.
+ */
+public enum KarotzDegradation {
+
+	NONE("Full notifications"),
+	SHORT_SPEECH("Short speech"),
+	NO_BLINK("Short speech, no blinking"),
+	LED_ONLY("LED only"),
+	DROP_STALE_SUCCESS("LED only, stale successes dropped");
+
+	private final String displayName;
+
+	private KarotzDegradation(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Whether this level includes another one.
+	 *
+	 * @param level
+	 *            the other level
+	 * @return true if this level is at least as degraded
+	 */
+	public boolean includes(KarotzDegradation level) {
+		return compareTo(level) >= 0;
+	}
+}
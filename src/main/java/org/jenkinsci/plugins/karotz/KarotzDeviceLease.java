@@ -0,0 +1,356 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lease on a Karotz shared by several Jenkins controllers of the same host.
+ * <p>
+ * The lease is a small properties file, only read and written while holding
+ * a lock on it. A controller holds the lease from the start of its
+ * interactive session until the stop. When it is done while another
+ * controller is waiting, the open session is handed over through the file
+ * instead of being stopped, so that the next controller does not have to
+ * start a new one. A lease which is not renewed expires, so that a crashed
+ * controller does not keep the Karotz forever.
+ */
+public class KarotzDeviceLease {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzDeviceLease.class.getName());
+
+	/**
+	 * How long a lease lasts after the end of the last action
+	 */
+	static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(2);
+
+	/**
+	 * How long a session handed over may be adopted, and a waiting controller
+	 * is considered to be still waiting
+	 */
+	static final long HANDOVER_TTL = TimeUnit.SECONDS.toMillis(5);
+
+	private static final long POLL_INTERVAL = 250;
+
+	private static final String OWNER = "owner";
+
+	private static final String EXPIRES_AT = "expiresAt";
+
+	private static final String INTERACTIVE_ID = "interactiveId";
+
+	private static final String HANDED_OVER_AT = "handedOverAt";
+
+	private static final String WAITER = "waiter";
+
+	private static final String WAITING_AT = "waitingAt";
+
+	private static final ConcurrentMap<String, KarotzDeviceLease> LEASES = new ConcurrentHashMap<String, KarotzDeviceLease>();
+
+	private final File file;
+
+	private final String owner;
+
+	private final long ttl;
+
+	private boolean held;
+
+	/**
+	 * Lease file, while locked
+	 */
+	private RandomAccessFile raf;
+
+	private FileLock lock;
+
+	KarotzDeviceLease(File file, String owner, long ttl) {
+		this.file = file;
+		this.owner = owner;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Gets the lease of this controller on a lease file.
+	 *
+	 * @param file
+	 *            the lease file, shared by the controllers
+	 * @return the lease
+	 */
+	public static KarotzDeviceLease forFile(File file) {
+		String key = file.getAbsolutePath();
+		KarotzDeviceLease lease = LEASES.get(key);
+		if (lease == null) {
+			KarotzDeviceLease created = new KarotzDeviceLease(file,
+					ManagementFactory.getRuntimeMXBean().getName(),
+					DEFAULT_TTL);
+			lease = LEASES.putIfAbsent(key, created);
+			if (lease == null) {
+				lease = created;
+			}
+		}
+		return lease;
+	}
+
+	/**
+	 * Acquires the lease, waiting for the other controllers to be done. The
+	 * other threads may use this lease meanwhile, e.g. to release it.
+	 *
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return id of the session handed over by the previous holder, or null
+	 * @throws KarotzException
+	 *             if the lease is still held by another controller after the
+	 *             timeout
+	 */
+	public synchronized String acquire(long timeout) throws KarotzException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			long now = System.currentTimeMillis();
+			Properties state = lock();
+			try {
+				String holder = state.getProperty(OWNER);
+				if (holder == null || owner.equals(holder)
+						|| getLong(state, EXPIRES_AT) < now) {
+					if (holder != null && !owner.equals(holder)) {
+						LOGGER.log(Level.WARNING,
+								"Taking over the expired lease of {0}", holder);
+					}
+					String handedOver = null;
+					if (now - getLong(state, HANDED_OVER_AT) < HANDOVER_TTL) {
+						handedOver = state.getProperty(INTERACTIVE_ID);
+					}
+					state.clear();
+					state.setProperty(OWNER, owner);
+					state.setProperty(EXPIRES_AT, String.valueOf(now + ttl));
+					write(state);
+					held = true;
+					return handedOver;
+				}
+				if (now >= deadline) {
+					throw new KarotzException("The Karotz is leased by "
+							+ holder);
+				}
+				state.setProperty(WAITER, owner);
+				state.setProperty(WAITING_AT, String.valueOf(now));
+				write(state);
+			} finally {
+				unlock();
+			}
+			// releases the monitor meanwhile, woken up early by a release
+			try {
+				wait(Math.max(1, Math.min(POLL_INTERVAL, deadline - now)));
+			} catch (InterruptedException e) {
+				throw new KarotzException(e);
+			}
+		}
+	}
+
+	/**
+	 * Extends the lease until some time after the given one.
+	 *
+	 * @param until
+	 *            time at which the last action ends
+	 * @throws KarotzException
+	 *             if the lease file cannot be written
+	 */
+	public synchronized void renew(long until) throws KarotzException {
+		if (!held) {
+			return;
+		}
+		Properties state = lock();
+		try {
+			if (owner.equals(state.getProperty(OWNER))) {
+				state.setProperty(EXPIRES_AT, String.valueOf(until + ttl));
+				write(state);
+			} else {
+				LOGGER.log(Level.WARNING, "Lost the lease of {0}", file);
+				held = false;
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Whether another controller waits for the lease.
+	 *
+	 * @return true if another controller waits
+	 * @throws KarotzException
+	 *             if the lease file cannot be read
+	 */
+	public synchronized boolean hasWaiters() throws KarotzException {
+		Properties state = lock();
+		try {
+			String waiter = state.getProperty(WAITER);
+			return waiter != null
+					&& !owner.equals(waiter)
+					&& System.currentTimeMillis()
+							- getLong(state, WAITING_AT) < HANDOVER_TTL;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Releases the lease.
+	 *
+	 * @param interactiveId
+	 *            id of the session handed over to the next holder, null if the
+	 *            session has been stopped
+	 * @throws KarotzException
+	 *             if the lease file cannot be written
+	 */
+	public synchronized void release(String interactiveId)
+			throws KarotzException {
+		if (!held) {
+			return;
+		}
+		held = false;
+		notifyAll();
+		Properties state = lock();
+		try {
+			if (!owner.equals(state.getProperty(OWNER))) {
+				return;
+			}
+			state.remove(OWNER);
+			state.remove(EXPIRES_AT);
+			if (interactiveId != null) {
+				state.setProperty(INTERACTIVE_ID, interactiveId);
+				state.setProperty(HANDED_OVER_AT,
+						String.valueOf(System.currentTimeMillis()));
+			} else {
+				state.remove(INTERACTIVE_ID);
+				state.remove(HANDED_OVER_AT);
+			}
+			write(state);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Takes the lease back after handing a session over, if no controller has
+	 * adopted the session, so that it can be stopped.
+	 *
+	 * @param interactiveId
+	 *            id of the session handed over
+	 * @return true if the session has not been adopted, the lease being held
+	 *         again
+	 * @throws KarotzException
+	 *             if the lease file cannot be written
+	 */
+	public synchronized boolean reclaim(String interactiveId)
+			throws KarotzException {
+		Properties state = lock();
+		try {
+			// adopting or taking the lease clears the session handed over
+			if (state.getProperty(OWNER) != null
+					|| !interactiveId.equals(state.getProperty(INTERACTIVE_ID))) {
+				return false;
+			}
+			state.clear();
+			state.setProperty(OWNER, owner);
+			state.setProperty(EXPIRES_AT,
+					String.valueOf(System.currentTimeMillis() + ttl));
+			write(state);
+			held = true;
+			return true;
+		} finally {
+			unlock();
+		}
+	}
+
+	public synchronized boolean isHeld() {
+		return held;
+	}
+
+	private Properties lock() throws KarotzException {
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			lock = raf.getChannel().lock();
+			byte[] content = new byte[(int) raf.length()];
+			raf.readFully(content);
+			Properties state = new Properties();
+			state.load(new ByteArrayInputStream(content));
+			return state;
+		} catch (IOException e) {
+			unlock();
+			throw new KarotzException("Failed to read the lease " + file, e);
+		}
+	}
+
+	private void write(Properties state) throws KarotzException {
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			state.store(content, "Karotz lease");
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap(content.toByteArray()), 0);
+			channel.force(false);
+		} catch (IOException e) {
+			throw new KarotzException("Failed to write the lease " + file, e);
+		}
+	}
+
+	private void unlock() {
+		try {
+			if (lock != null) {
+				lock.release();
+			}
+			if (raf != null) {
+				raf.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to unlock " + file, e);
+		} finally {
+			lock = null;
+			raf = null;
+		}
+	}
+
+	private static long getLong(Properties state, String key) {
+		try {
+			return Long.parseLong(state.getProperty(key, "0"));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
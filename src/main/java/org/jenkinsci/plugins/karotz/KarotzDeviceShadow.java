@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a Karotz is believed to show, as left by the last acknowledged
+ * actions. Actions which would not change it are not sent.
+ * <p>
+ * The Karotz API cannot be queried for the state of the device, and the
+ * device may be changed by other applications. Each part of the state is thus
+ * forgotten after a while, so that the next action on it is sent again and
+ * the device is brought back in line with the shadow.
+ */
+public class KarotzDeviceShadow {
+
+	/**
+	 * How long a part of the state is trusted
+	 */
+	static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+
+	public static final String LED_LIGHT = "light";
+
+	public static final String LED_FADE = "fade";
+
+	public static final String LED_OFF = "off";
+
+	private static final ConcurrentMap<String, KarotzDeviceShadow> SHADOWS = new ConcurrentHashMap<String, KarotzDeviceShadow>();
+
+	private final long ttl;
+
+	private String ledMode;
+
+	private String ledColor;
+
+	private long ledUpdatedAt;
+
+	private Integer leftEar;
+
+	private Integer rightEar;
+
+	private long earsUpdatedAt;
+
+	private long speakingUntil;
+
+	KarotzDeviceShadow(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Gets the shadow of a device.
+	 *
+	 * @param installId
+	 *            install ID of the application on the device
+	 * @return the shadow
+	 */
+	public static KarotzDeviceShadow forInstallId(String installId) {
+		String key = String.valueOf(installId);
+		KarotzDeviceShadow shadow = SHADOWS.get(key);
+		if (shadow == null) {
+			KarotzDeviceShadow created = new KarotzDeviceShadow(DEFAULT_TTL);
+			shadow = SHADOWS.putIfAbsent(key, created);
+			if (shadow == null) {
+				shadow = created;
+			}
+		}
+		return shadow;
+	}
+
+	/**
+	 * Whether the LED is known to be in a given state.
+	 *
+	 * @param mode
+	 *            one of {@link #LED_LIGHT}, {@link #LED_FADE} or
+	 *            {@link #LED_OFF}
+	 * @param color
+	 *            the color, null when off
+	 * @return true if the LED is in this state
+	 */
+	public synchronized boolean isLed(String mode, String color) {
+		return isFresh(ledUpdatedAt) && mode.equals(ledMode)
+				&& (color == null ? ledColor == null : color.equals(ledColor));
+	}
+
+	public synchronized void setLed(String mode, String color) {
+		ledMode = mode;
+		ledColor = color;
+		ledUpdatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Whether the ears are known to be at given positions.
+	 *
+	 * @param left
+	 *            position of the left ear, null for any
+	 * @param right
+	 *            position of the right ear, null for any
+	 * @return true if the ears are at these positions
+	 */
+	public synchronized boolean areEars(Integer left, Integer right) {
+		if (!isFresh(earsUpdatedAt)) {
+			return false;
+		}
+		return (left == null || left.equals(leftEar))
+				&& (right == null || right.equals(rightEar));
+	}
+
+	/**
+	 * Records the positions of the ears.
+	 *
+	 * @param left
+	 *            position of the left ear, null if it has not moved
+	 * @param right
+	 *            position of the right ear, null if it has not moved
+	 */
+	public synchronized void setEars(Integer left, Integer right) {
+		if (!isFresh(earsUpdatedAt)) {
+			leftEar = null;
+			rightEar = null;
+		}
+		if (left != null) {
+			leftEar = left;
+		}
+		if (right != null) {
+			rightEar = right;
+		}
+		earsUpdatedAt = System.currentTimeMillis();
+	}
+
+	public synchronized void invalidateEars() {
+		leftEar = null;
+		rightEar = null;
+		earsUpdatedAt = 0;
+	}
+
+	public synchronized long getSpeakingUntil() {
+		return speakingUntil;
+	}
+
+	/**
+	 * Records that the Karotz speaks, or plays a sound, for a while.
+	 *
+	 * @param duration
+	 *            duration in milliseconds
+	 */
+	public synchronized void speak(long duration) {
+		speakingUntil = Math.max(speakingUntil, System.currentTimeMillis())
+				+ duration;
+	}
+
+	/**
+	 * Copies this shadow, e.g. to plan a batch of actions without changing
+	 * what the Karotz is believed to show.
+	 *
+	 * @return the copy, not registered for any device
+	 */
+	public synchronized KarotzDeviceShadow copy() {
+		KarotzDeviceShadow copy = new KarotzDeviceShadow(ttl);
+		copy.ledMode = ledMode;
+		copy.ledColor = ledColor;
+		copy.ledUpdatedAt = ledUpdatedAt;
+		copy.leftEar = leftEar;
+		copy.rightEar = rightEar;
+		copy.earsUpdatedAt = earsUpdatedAt;
+		copy.speakingUntil = speakingUntil;
+		return copy;
+	}
+
+	/**
+	 * Forgets everything, e.g. after a refused action.
+	 */
+	public synchronized void invalidate() {
+		ledMode = null;
+		ledColor = null;
+		ledUpdatedAt = 0;
+		invalidateEars();
+	}
+
+	private boolean isFresh(long updatedAt) {
+		return System.currentTimeMillis() - updatedAt < ttl;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LED " + ledMode + " " + ledColor + ", ears " + leftEar + "/"
+				+ rightEar;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Content-addressed cache of earcons, the short sound clips played by the
+ * Karotz instead of (or before) speaking.
+ * <p>
+ * Each clip is stored under the SHA-1 of its content and served by Jenkins
+ * at <code>/karotz-earcons/&lt;sha1&gt;.mp3</code>. The Karotz downloads the
+ * clips itself, so this URL is not protected, and since a given URL always
+ * serves the same content it can be cached forever.
+ */
+@Extension
+public class KarotzEarcons implements UnprotectedRootAction {
+
+	/**
+	 * Maximum size of a clip
+	 */
+	public static final long MAX_SIZE = 1024 * 1024;
+
+	private static final String URL_NAME = "karotz-earcons";
+
+	private static final String EXTENSION = ".mp3";
+
+	private static final String UPLOAD_DIR = "userContent";
+
+	private static final Pattern NAME = Pattern.compile("[0-9a-f]{40}\\"
+			+ EXTENSION);
+
+	private static final long EXPIRATION = TimeUnit.DAYS.toMillis(365);
+
+	/**
+	 * Directory of the cache, null to use the one under JENKINS_HOME
+	 */
+	private final File dir;
+
+	public KarotzEarcons() {
+		this(null);
+	}
+
+	KarotzEarcons(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Stores a clip in the cache.
+	 *
+	 * @param source
+	 *            the clip
+	 * @return the name of the clip in the cache
+	 * @throws IOException
+	 *             if the clip cannot be read or stored
+	 */
+	public String store(File source) throws IOException {
+		if (source.length() > MAX_SIZE) {
+			throw new IOException(source + " is too large for an earcon.");
+		}
+		byte[] content = FileUtils.readFileToByteArray(source);
+		String name = hash(content) + EXTENSION;
+		File target = getFile(name);
+		if (!target.exists()) {
+			// write then rename, so that a clip is never served partially
+			File tmp = new File(target.getPath() + ".tmp");
+			FileUtils.writeByteArrayToFile(tmp, content);
+			if (!tmp.renameTo(target) && !target.exists()) {
+				throw new IOException("Failed to store " + target);
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Gets a clip uploaded to <code>JENKINS_HOME/userContent</code>, the only
+	 * place clips are read from.
+	 *
+	 * @param path
+	 *            path of the clip, relative to the user content
+	 * @return the clip
+	 * @throws IOException
+	 *             if the path is outside of the user content
+	 */
+	public static File getSource(String path) throws IOException {
+		return resolve(new File(Jenkins.getInstance().getRootDir(),
+				UPLOAD_DIR), path);
+	}
+
+	static File resolve(File base, String path) throws IOException {
+		File file = new File(path);
+		if (!file.isAbsolute()) {
+			file = new File(base, path);
+		}
+		File canonical = file.getCanonicalFile();
+		if (!canonical.getPath().startsWith(
+				base.getCanonicalPath() + File.separator)) {
+			throw new IOException(path + " is not under " + UPLOAD_DIR
+					+ ".");
+		}
+		return canonical;
+	}
+
+	/**
+	 * Gets the URL of a clip stored in the cache.
+	 *
+	 * @param name
+	 *            the name of the clip in the cache
+	 * @return the URL, or null if the root URL of Jenkins is unknown
+	 */
+	public static String getUrl(String name) {
+		if (name == null) {
+			return null;
+		}
+		String rootUrl = Jenkins.getInstance().getRootUrl();
+		if (rootUrl == null) {
+			return null;
+		}
+		return rootUrl + URL_NAME + '/' + name;
+	}
+
+	File getFile(String name) {
+		File root = dir != null ? dir : new File(Jenkins.getInstance()
+				.getRootDir(), URL_NAME);
+		return new File(root, name);
+	}
+
+	static boolean isValidName(String name) {
+		return name != null && NAME.matcher(name).matches();
+	}
+
+	public void doDynamic(StaplerRequest req, StaplerResponse rsp)
+			throws IOException, ServletException {
+		String name = req.getRestOfPath();
+		if (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		File file = getFile(name);
+		if (!isValidName(name) || !file.isFile()) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		rsp.serveFile(req, file.toURI().toURL(), EXPIRATION);
+	}
+
+	private static String hash(byte[] content) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return new String(Hex.encodeHex(digest.digest(content)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Karotz earcons";
+	}
+
+	public String getUrlName() {
+		return URL_NAME;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import org.jenkinsci.plugins.karotz.eventhandler.KarotzEventHandler;
+
+/**
+ * Events announced by the Karotz.
+ */
+public enum KarotzEvent {
+
+	START("Start") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onStart(context);
+		}
+	},
+	SUCCESS("Success") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onSuccess(context);
+		}
+	},
+	FAILURE("Failure") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onFailure(context);
+		}
+	},
+	UNSTABLE("Unstable") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onUnstable(context);
+		}
+	},
+	RECOVER("Recover") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onRecover(context);
+		}
+	},
+	FLAPPING("Flapping") {
+		@Override
+		public void fire(KarotzEventHandler handler, KarotzContext context)
+				throws KarotzException {
+			handler.onFlapping(context);
+		}
+	};
+
+	private final String displayName;
+
+	private KarotzEvent(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Calls the method of the handler matching this event.
+	 *
+	 * @param handler
+	 *            the event handler
+	 * @param context
+	 *            notification context
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public abstract void fire(KarotzEventHandler handler, KarotzContext context)
+			throws KarotzException;
+
+	/**
+	 * Gets the event announcing the result of a completed build.
+	 *
+	 * @param build
+	 *            the completed build
+	 * @return the event, or null if the result is not announced
+	 */
+	public static KarotzEvent forCompletedBuild(AbstractBuild<?, ?> build) {
+		return forResult(build.getResult(), build.getPreviousBuild());
+	}
+
+	/**
+	 * Gets the event announcing a result.
+	 *
+	 * @param result
+	 *            the result of the build
+	 * @param previous
+	 *            the previous build, null if none
+	 * @return the event, or null if the result is not announced
+	 */
+	public static KarotzEvent forResult(Result result, Run<?, ?> previous) {
+		if (result == Result.FAILURE) {
+			return FAILURE;
+		} else if (result == Result.UNSTABLE) {
+			return UNSTABLE;
+		} else if (result == Result.SUCCESS) {
+			if (previous != null && previous.getResult() == Result.FAILURE) {
+				return RECOVER;
+			}
+			return SUCCESS;
+		}
+		return null;
+	}
+}
@@ -23,6 +23,11 @@
  */
 package org.jenkinsci.plugins.karotz;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * Karotz Exception.
  * 
@@ -32,6 +37,28 @@ public class KarotzException extends Exception {
 
 	private static final long serialVersionUID = 591332023257268967L;
 
+	/**
+	 * Code of a request put off by the rate limiter, see
+	 * {@link #getRetryAfter()}
+	 */
+	public static final String THROTTLED = "THROTTLED";
+
+	/**
+	 * Codes of the responses meaning that the request may succeed later
+	 */
+	private static final Set<String> TRANSIENT_CODES = new HashSet<String>(
+			Arrays.asList("NOT_CONNECTED", "ERROR", THROTTLED));
+
+	/**
+	 * Code of the response of the Karotz API, null if there was no response
+	 */
+	private final String code;
+
+	/**
+	 * Time to wait (in milliseconds) before sending a throttled request again
+	 */
+	private final long retryAfter;
+
 	/**
 	 * Constructor.
 	 * 
@@ -40,6 +67,8 @@ public class KarotzException extends Exception {
 	 */
 	public KarotzException(Throwable cause) {
 		super(cause);
+		this.code = null;
+		this.retryAfter = 0;
 	}
 
 	/**
@@ -52,6 +81,8 @@ public class KarotzException extends Exception {
 	 */
 	public KarotzException(String message, Throwable cause) {
 		super(message, cause);
+		this.code = null;
+		this.retryAfter = 0;
 	}
 
 	/**
@@ -61,12 +92,77 @@ public class KarotzException extends Exception {
 	 *            the detail message
 	 */
 	public KarotzException(String message) {
+		this(message, (String) null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param message
+	 *            the detail message
+	 * @param code
+	 *            code of the response of the Karotz API
+	 */
+	public KarotzException(String message, String code) {
+		this(message, code, 0);
+	}
+
+	/**
+	 * Constructor for a request put off by the rate limiter.
+	 * 
+	 * @param message
+	 *            the detail message
+	 * @param retryAfter
+	 *            time to wait (in milliseconds) before sending it again
+	 */
+	public KarotzException(String message, long retryAfter) {
+		this(message, THROTTLED, retryAfter);
+	}
+
+	private KarotzException(String message, String code, long retryAfter) {
 		super(message);
+		this.code = code;
+		this.retryAfter = retryAfter;
 	}
 
 	/**
 	 * Constructor.
 	 */
 	public KarotzException() {
+		this.code = null;
+		this.retryAfter = 0;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * Whether the Karotz API refused the request for good, so that sending it
+	 * again is pointless. Network troubles are never fatal.
+	 * 
+	 * @return true if the request should not be retried
+	 */
+	public boolean isFatal() {
+		if (code != null) {
+			return !TRANSIENT_CODES.contains(code.toUpperCase(Locale.ENGLISH));
+		}
+		return getCause() instanceof KarotzException
+				&& ((KarotzException) getCause()).isFatal();
+	}
+
+	/**
+	 * Gets how long to wait before sending a request put off by the rate
+	 * limiter again.
+	 * 
+	 * @return time to wait in milliseconds, 0 if the request was not
+	 *         throttled
+	 */
+	public long getRetryAfter() {
+		if (THROTTLED.equals(code)) {
+			return retryAfter;
+		}
+		return getCause() instanceof KarotzException ? ((KarotzException) getCause())
+				.getRetryAfter() : 0;
 	}
 }
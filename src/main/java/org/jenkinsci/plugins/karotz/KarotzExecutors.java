@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by the whole plugin.
+ */
+public final class KarotzExecutors {
+
+	/**
+	 * Number of threads of the timer
+	 */
+	private static final int TIMER_THREADS = 2;
+
+	/**
+	 * Maximum number of scripts running at once, counting the abandoned ones
+	 * which are not over yet
+	 */
+	private static final int SCRIPT_THREADS = 4;
+
+	/**
+	 * Timer used to run delayed tasks (e.g. stopping the interactive mode)
+	 */
+	private static final ScheduledExecutorService TIMER = Executors
+			.newScheduledThreadPool(TIMER_THREADS, new DaemonThreadFactory(
+					"Karotz timer"));
+
+	/**
+	 * Pool used to send the actions of independent channels concurrently
+	 */
+	private static final ExecutorService CHANNELS = Executors
+			.newCachedThreadPool(new DaemonThreadFactory("Karotz channel"));
+
+	/**
+	 * Single thread sending the queued notifications, one at a time
+	 */
+	private static final ExecutorService NOTIFICATIONS = Executors
+			.newSingleThreadExecutor(new DaemonThreadFactory(
+					"Karotz notifications"));
+
+	/**
+	 * Single thread updating the radiator, away from the threads of the builds
+	 */
+	private static final ExecutorService RADIATOR = Executors
+			.newSingleThreadExecutor(new DaemonThreadFactory("Karotz radiator"));
+
+	/**
+	 * Single thread opening the sessions ahead of time, so that a warm-up is
+	 * never queued behind the deliveries being retried
+	 */
+	private static final ExecutorService PREWARM = Executors
+			.newSingleThreadExecutor(new DaemonThreadFactory("Karotz prewarm"));
+
+	/**
+	 * Pool evaluating the scripts of the event handlers, so that a slow script
+	 * can be abandoned. A script stuck where it cannot be interrupted keeps
+	 * its thread, so the pool is bounded and refuses the scripts beyond.
+	 */
+	private static final ExecutorService SCRIPTS = new ThreadPoolExecutor(0,
+			SCRIPT_THREADS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new DaemonThreadFactory(
+					"Karotz script"));
+
+	private KarotzExecutors() {
+		// do not use
+	}
+
+	/**
+	 * Gets the shared timer.
+	 *
+	 * @return the timer
+	 */
+	public static ScheduledExecutorService timer() {
+		return TIMER;
+	}
+
+	/**
+	 * Gets the pool used to send the actions of independent channels.
+	 *
+	 * @return the pool
+	 */
+	public static ExecutorService channels() {
+		return CHANNELS;
+	}
+
+	/**
+	 * Gets the thread sending the queued notifications.
+	 *
+	 * @return the executor
+	 */
+	public static ExecutorService notifications() {
+		return NOTIFICATIONS;
+	}
+
+	/**
+	 * Gets the thread updating the radiator.
+	 *
+	 * @return the executor
+	 */
+	public static ExecutorService radiator() {
+		return RADIATOR;
+	}
+
+	/**
+	 * Gets the thread opening the sessions ahead of time.
+	 *
+	 * @return the executor
+	 */
+	public static ExecutorService prewarm() {
+		return PREWARM;
+	}
+
+	/**
+	 * Gets the pool evaluating the scripts of the event handlers, which
+	 * rejects a script when all its threads are busy.
+	 *
+	 * @return the pool
+	 */
+	public static ExecutorService scripts() {
+		return SCRIPTS;
+	}
+
+	/**
+	 * Creates named daemon threads, so that they never prevent the JVM from
+	 * shutting down.
+	 */
+	static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final String name;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + " #" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
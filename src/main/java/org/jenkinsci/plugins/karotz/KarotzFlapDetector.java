@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Detects the jobs flapping between failure and success, so that they are
+ * announced once as flapping instead of at each change.
+ * <p>
+ * The last results of each job are kept in a single int: one bit per result,
+ * set for a failure or an unstable build, the most recent in the lowest bit,
+ * followed by the number of results and a flag for the flapping jobs. A job
+ * starts flapping when its last {@link #WINDOW} results change at least
+ * {@link #FLAP_THRESHOLD} times, and stops once its last
+ * {@link #STABLE_RESULTS} results are the same.
+ */
+public final class KarotzFlapDetector {
+
+	private static final KarotzFlapDetector INSTANCE = new KarotzFlapDetector();
+
+	/**
+	 * Number of results kept by job
+	 */
+	static final int WINDOW = 8;
+
+	/**
+	 * Number of changes in the window making a job flapping
+	 */
+	static final int FLAP_THRESHOLD = 4;
+
+	/**
+	 * Number of identical results making a flapping job stable again
+	 */
+	static final int STABLE_RESULTS = 3;
+
+	private static final int RESULTS = (1 << WINDOW) - 1;
+
+	private static final int COUNT_SHIFT = WINDOW;
+
+	private static final int COUNT = 0xF << COUNT_SHIFT;
+
+	private static final int FLAPPING = 1 << (COUNT_SHIFT + 4);
+
+	/**
+	 * State of each job, by full name
+	 */
+	private final Map<String, Integer> states = new HashMap<String, Integer>();
+
+	KarotzFlapDetector() {
+	}
+
+	public static KarotzFlapDetector get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records the result of a build, and gets what should be announced.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @param event
+	 *            the event of the build
+	 * @return the event, {@link KarotzEvent#FLAPPING} if the job has just
+	 *         started flapping, or null if the job is flapping
+	 */
+	public synchronized KarotzEvent offer(String jobName, KarotzEvent event) {
+		Integer previous = states.get(jobName);
+		int state = previous != null ? previous : 0;
+		boolean flapping = (state & FLAPPING) != 0;
+		if (event == KarotzEvent.START) {
+			return flapping ? null : event;
+		}
+		boolean failed = event == KarotzEvent.FAILURE
+				|| event == KarotzEvent.UNSTABLE;
+		int results = ((state & RESULTS) << 1 | (failed ? 1 : 0)) & RESULTS;
+		int count = Math.min(WINDOW, ((state & COUNT) >>> COUNT_SHIFT) + 1);
+
+		KarotzEvent announced;
+		if (!flapping && countChanges(results, count) >= FLAP_THRESHOLD) {
+			flapping = true;
+			announced = KarotzEvent.FLAPPING;
+		} else if (flapping && isStable(results, count)) {
+			flapping = false;
+			announced = event;
+		} else {
+			announced = flapping ? null : event;
+		}
+		states.put(jobName, results | count << COUNT_SHIFT
+				| (flapping ? FLAPPING : 0));
+		return announced;
+	}
+
+	/**
+	 * Whether a job is flapping.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @return true if the job is flapping
+	 */
+	public synchronized boolean isFlapping(String jobName) {
+		Integer state = states.get(jobName);
+		return state != null && (state & FLAPPING) != 0;
+	}
+
+	/**
+	 * Forgets the results, e.g. when the detection is disabled.
+	 */
+	public synchronized void clear() {
+		states.clear();
+	}
+
+	private static int countChanges(int results, int count) {
+		// a change between each pair of consecutive results which differ
+		return Integer.bitCount((results ^ results >>> 1) & mask(count - 1));
+	}
+
+	private static boolean isStable(int results, int count) {
+		int last = results & mask(STABLE_RESULTS);
+		return count >= STABLE_RESULTS
+				&& (last == 0 || last == mask(STABLE_RESULTS));
+	}
+
+	private static int mask(int bits) {
+		return (1 << bits) - 1;
+	}
+}
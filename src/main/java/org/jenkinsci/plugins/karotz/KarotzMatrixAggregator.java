@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.Launcher;
+import hudson.matrix.MatrixAggregator;
+import hudson.matrix.MatrixBuild;
+import hudson.model.BuildListener;
+
+/**
+ * Announces a matrix build once, with the worst result of its
+ * configurations, the configurations themselves staying silent.
+ */
+class KarotzMatrixAggregator extends MatrixAggregator {
+
+	private final KarotzPublisher publisher;
+
+	KarotzMatrixAggregator(MatrixBuild build, Launcher launcher,
+			BuildListener listener, KarotzPublisher publisher) {
+		super(build, launcher, listener);
+		this.publisher = publisher;
+	}
+
+	@Override
+	public boolean startBuild() {
+		publisher.announceStart(build);
+		return true;
+	}
+
+	@Override
+	public boolean endBuild() {
+		// the result of the matrix build is not set yet
+		KarotzMatrixSummary summary = KarotzMatrixSummary.of(build);
+		build.addAction(summary);
+		publisher.announce(build, KarotzEvent.forResult(summary.getResult(),
+				build.getPreviousBuild()), listener);
+		return true;
+	}
+}
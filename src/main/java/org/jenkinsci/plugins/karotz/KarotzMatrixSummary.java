@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.model.Action;
+import hudson.model.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of the configurations of a matrix build, kept with the build so
+ * that its single notification can name the failing axes.
+ */
+public class KarotzMatrixSummary implements Action {
+
+	/**
+	 * Number of failing configurations named in the speech
+	 */
+	static final int MAX_NAMED = 3;
+
+	private final Result result;
+
+	private final List<String> failing;
+
+	private final int total;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param result
+	 *            worst result of the configurations
+	 * @param failing
+	 *            the configurations worse than successful, e.g.
+	 *            <code>jdk=6,os=linux</code>
+	 * @param total
+	 *            number of configurations built
+	 */
+	public KarotzMatrixSummary(Result result, List<String> failing, int total) {
+		this.result = result;
+		this.failing = new ArrayList<String>(failing);
+		this.total = total;
+	}
+
+	/**
+	 * Summarizes the configurations of a matrix build, once they are all
+	 * completed.
+	 *
+	 * @param build
+	 *            the matrix build
+	 * @return the summary
+	 */
+	public static KarotzMatrixSummary of(MatrixBuild build) {
+		Result result = Result.SUCCESS;
+		List<String> failing = new ArrayList<String>();
+		int total = 0;
+		for (MatrixRun run : build.getRuns()) {
+			if (run == null || run.getResult() == null) {
+				continue;
+			}
+			total++;
+			result = result.combine(run.getResult());
+			if (run.getResult().isWorseThan(Result.SUCCESS)) {
+				failing.add(run.getParent().getCombination().toString(',', '='));
+			}
+		}
+		return new KarotzMatrixSummary(result, failing, total);
+	}
+
+	public Result getResult() {
+		return result;
+	}
+
+	public List<String> getFailing() {
+		return Collections.unmodifiableList(failing);
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Gets the speech naming the failing configurations.
+	 *
+	 * @return the speech, null if no configuration failed
+	 */
+	public String getSpeech() {
+		if (failing.isEmpty()) {
+			return null;
+		}
+		StringBuilder speech = new StringBuilder();
+		speech.append(failing.size()).append(" of ").append(total)
+				.append(" configurations failed: ");
+		for (int i = 0; i < failing.size() && i < MAX_NAMED; i++) {
+			if (i > 0) {
+				speech.append(", ");
+			}
+			// jdk=6,os=linux is spoken as jdk 6 os linux
+			speech.append(failing.get(i).replace('=', ' ').replace(',', ' '));
+		}
+		if (failing.size() > MAX_NAMED) {
+			speech.append(" and ").append(failing.size() - MAX_NAMED)
+					.append(" more");
+		}
+		return speech.append('.').toString();
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.AbstractBuild;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens the interactive session shortly before a build is expected to
+ * finish, from its estimated duration, so that its result is announced
+ * without waiting for the start of a session.
+ * <p>
+ * A session opened for a build which takes longer than expected is stopped
+ * as usual once idle, at the cost of a single start and stop.
+ */
+public final class KarotzPrewarmer {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzPrewarmer.class.getName());
+
+	private static final KarotzPrewarmer INSTANCE = new KarotzPrewarmer();
+
+	/**
+	 * How long before the expected end of a build the session is opened
+	 */
+	static final long LEAD_TIME = TimeUnit.SECONDS.toMillis(5);
+
+	/**
+	 * How long a prewarmed session is kept open, if no notification uses it
+	 */
+	static final long WARM_PERIOD = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Pending warm-up of each running build, by build id
+	 */
+	private final ConcurrentMap<String, ScheduledFuture<?>> warmUps = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+	private KarotzPrewarmer() {
+	}
+
+	public static KarotzPrewarmer get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Plans the warm-up of the session for a build which has just started.
+	 *
+	 * @param build
+	 *            the build, whose result will be announced
+	 * @param config
+	 *            configuration snapshot
+	 */
+	public void started(AbstractBuild<?, ?> build, final KarotzConfig config) {
+		long estimate = build.getEstimatedDuration();
+		if (!config.isPrewarm() || estimate <= 0) {
+			// no previous build to estimate from
+			return;
+		}
+		final String id = getId(build);
+		long delay = build.getStartTimeInMillis() + estimate - LEAD_TIME
+				- System.currentTimeMillis();
+		ScheduledFuture<?> warmUp = KarotzExecutors.timer().schedule(
+				new Runnable() {
+					public void run() {
+						warmUps.remove(id);
+						// the start may be slow, do not hold the timer, nor
+						// wait for the notifications being delivered
+						KarotzExecutors.prewarm().execute(new Runnable() {
+							public void run() {
+								warmUp(config);
+							}
+						});
+					}
+				}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> previous = warmUps.put(id, warmUp);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+	/**
+	 * Cancels the warm-up of a build which is over.
+	 *
+	 * @param build
+	 *            the completed build
+	 */
+	public void completed(AbstractBuild<?, ?> build) {
+		ScheduledFuture<?> warmUp = warmUps.remove(getId(build));
+		if (warmUp != null) {
+			warmUp.cancel(false);
+		}
+	}
+
+	private static void warmUp(KarotzConfig config) {
+		try {
+			config.getClient().prewarm(WARM_PERIOD);
+		} catch (KarotzException e) {
+			LOGGER.log(Level.WARNING, "Failed to prewarm the interactive mode",
+					e);
+		}
+	}
+
+	private static String getId(AbstractBuild<?, ?> build) {
+		return build.getProject().getFullName() + '#' + build.getNumber();
+	}
+}
@@ -3,8 +3,11 @@ package org.jenkinsci.plugins.karotz;
 import hudson.Extension;
 import hudson.Launcher;
 import hudson.Util;
+import hudson.matrix.MatrixAggregatable;
+import hudson.matrix.MatrixAggregator;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
 import hudson.model.BuildListener;
-import hudson.model.Result;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Descriptor;
@@ -13,9 +16,14 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
 
@@ -25,6 +33,9 @@ import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.karotz.eventhandler.KarotzDefaultEventHandler;
 import org.jenkinsci.plugins.karotz.eventhandler.KarotzEventHandler;
 import org.jenkinsci.plugins.karotz.eventhandler.KarotzEventHandlerDescriptor;
+import org.jenkinsci.plugins.karotz.notification.KarotzDispatcher;
+import org.jenkinsci.plugins.karotz.notification.KarotzFairQueue;
+import org.jenkinsci.plugins.karotz.notification.KarotzNotification;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -35,7 +46,7 @@ import org.kohsuke.stapler.StaplerRequest;
  * @author William Durand <william.durand1@gmail.com>
  * @author Seiji Sogabe <s.sogabe@gmail.com>
  */
-public class KarotzPublisher extends Notifier {
+public class KarotzPublisher extends Notifier implements MatrixAggregatable {
 
 	/**
 	 * Logger
@@ -49,24 +60,9 @@ public class KarotzPublisher extends Notifier {
 
 	@Override
 	public boolean prebuild(AbstractBuild<?, ?> build, BuildListener listener) {
-		KarotzPublisherDescriptor d = Jenkins.getInstance()
-				.getDescriptorByType(KarotzPublisherDescriptor.class);
-		KarotzClient client = new KarotzClient(d.getApiKey(), d.getSecretKey(),
-				d.getInstallId());
-		try {
-			client.startInteractiveMode();
-			KarotzEventHandler handler = d.getEventHandler();
-			handler.onStart(build, listener);
-		} catch (KarotzException ex) {
-			return true;
-		} finally {
-			try {
-				client.stopInteractiveMode();
-			} catch (KarotzException e) {
-				listener.getLogger().println(e);
-			}
+		if (!(build instanceof MatrixRun)) {
+			announceStart(build);
 		}
-
 		return true;
 	}
 
@@ -74,42 +70,79 @@ public class KarotzPublisher extends Notifier {
 	public boolean perform(final AbstractBuild<?, ?> build,
 			final Launcher launcher, final BuildListener listener)
 			throws InterruptedException, IOException {
-		KarotzPublisherDescriptor d = Jenkins.getInstance()
-				.getDescriptorByType(KarotzPublisherDescriptor.class);
-		KarotzClient client = new KarotzClient(d.getApiKey(), d.getSecretKey(),
-				d.getInstallId());
-		try {
-			client.startInteractiveMode();
-			KarotzEventHandler handler = d.getEventHandler();
-			fire(handler, build, listener);
-		} catch (KarotzException ex) {
-			listener.getLogger().println(ex);
-			return true;
-		} finally {
-			try {
-				client.stopInteractiveMode();
-			} catch (KarotzException e) {
-				listener.getLogger().println(e);
-			}
+		if (!(build instanceof MatrixRun)) {
+			announce(build, KarotzEvent.forCompletedBuild(build), listener);
 		}
-
 		return true;
 	}
 
-	private void fire(KarotzEventHandler handler, AbstractBuild<?, ?> build,
-			BuildListener listener) throws KarotzException {
-		if (build.getResult() == Result.FAILURE) {
-			handler.onFailure(build, listener);
-		} else if (build.getResult() == Result.UNSTABLE) {
-			handler.onUnstable(build, listener);
-		} else if (build.getResult() == Result.SUCCESS) {
-			if (build.getPreviousBuild() != null
-					&& build.getPreviousBuild().getResult() == Result.FAILURE) {
-				handler.onRecover(build, listener);
-			} else {
-				handler.onSuccess(build, listener);
-			}
+	/**
+	 * Announces a matrix build once, instead of each of its configurations.
+	 */
+	public MatrixAggregator createAggregator(MatrixBuild build,
+			Launcher launcher, BuildListener listener) {
+		return new KarotzMatrixAggregator(build, launcher, listener, this);
+	}
+
+	/**
+	 * Queues the notification of the start of a build.
+	 *
+	 * @param build
+	 *            the build
+	 */
+	void announceStart(AbstractBuild<?, ?> build) {
+		KarotzConfig config = getDescriptor().getConfig();
+		if (!config.isRadiatorMode()
+				&& config.checkFlapping(build, KarotzEvent.START) != null
+				&& config.getRules().isAnnounced(build, KarotzEvent.START)
+				&& (!config.isCollapseChains() || KarotzChains.get().offer(
+						build, KarotzEvent.START))) {
+			// sent in the background, the build does not wait for it
+			KarotzDispatcher.get().enqueue(
+					KarotzNotification.of(build, KarotzEvent.START));
+		}
+	}
+
+	/**
+	 * Queues the notification of the result of a build.
+	 *
+	 * @param build
+	 *            the build
+	 * @param event
+	 *            the event, null if the result is not announced
+	 * @param listener
+	 *            build listener
+	 */
+	void announce(AbstractBuild<?, ?> build, KarotzEvent event,
+			BuildListener listener) {
+		KarotzConfig config = getDescriptor().getConfig();
+		if (event == null || config.isRadiatorMode()) {
+			return;
+		}
+		event = config.checkFlapping(build, event);
+		if (event == null) {
+			listener.getLogger().println(
+					"Karotz notification silenced, the job is flapping");
+			return;
+		}
+		if (!config.getRules().isAnnounced(build, event)) {
+			return;
+		}
+		if (config.isCollapseChains()
+				&& !KarotzChains.get().offer(build, event)) {
+			listener.getLogger().println(
+					"Karotz notification held until the end of the chain: "
+							+ event);
+			return;
 		}
+		// sent in turn with the other jobs, see KarotzFairQueue
+		KarotzDispatcher.get().enqueue(KarotzNotification.of(build, event));
+		listener.getLogger().println("Karotz notification queued: " + event);
+	}
+
+	@Override
+	public KarotzPublisherDescriptor getDescriptor() {
+		return (KarotzPublisherDescriptor) super.getDescriptor();
 	}
 
 	@Override
@@ -125,6 +158,21 @@ public class KarotzPublisher extends Notifier {
 	public static final class KarotzPublisherDescriptor extends
 			BuildStepDescriptor<Publisher> {
 
+		/**
+		 * Default duration of the earcons in milliseconds
+		 */
+		private static final long DEFAULT_EARCON_DURATION = 1000;
+
+		/**
+		 * Default maximum number of pending notifications of a job
+		 */
+		private static final int DEFAULT_FAIR_SHARE_CAP = 10;
+
+		/**
+		 * Default time a chain of builds may make no progress, in minutes
+		 */
+		private static final int DEFAULT_CHAIN_TIMEOUT = 10;
+
 		private String apiKey;
 
 		private String secretKey;
@@ -133,6 +181,115 @@ public class KarotzPublisher extends Notifier {
 
 		private KarotzEventHandler eventHandler;
 
+		/**
+		 * Maximum number of requests per second sent to the Karotz API
+		 */
+		private Double requestsPerSecond;
+
+		/**
+		 * Maximum number of requests sent at once to the Karotz API
+		 */
+		private Integer burstSize;
+
+		/**
+		 * Whether the actions on independent channels are sent concurrently
+		 */
+		private boolean concurrentChannels;
+
+		/**
+		 * How earcons are used, see {@link KarotzEarconMode}
+		 */
+		private String earconMode;
+
+		/**
+		 * Approximate duration of the earcons in milliseconds
+		 */
+		private Long earconDuration;
+
+		/**
+		 * Path of the earcon of each event, as entered by the user
+		 */
+		private Map<String, String> earconPaths;
+
+		/**
+		 * Name of the earcon of each event in the cache
+		 */
+		private Map<String, String> earconNames;
+
+		/**
+		 * Whether the LED shows the status of all the jobs instead of
+		 * announcing each build
+		 */
+		private boolean radiatorMode;
+
+		/**
+		 * Regular expression matching the jobs shown by the radiator
+		 */
+		private String radiatorJobs;
+
+		/**
+		 * Whether the builds of all the global jobs are announced, without
+		 * any publisher
+		 */
+		private boolean globalMode;
+
+		/**
+		 * Regular expression matching the jobs announced in global mode
+		 */
+		private String globalJobs;
+
+		/**
+		 * Whether the session is opened shortly before builds are expected to
+		 * end
+		 */
+		private boolean prewarm;
+
+		/**
+		 * Rules choosing the builds announced, see {@link KarotzRules}
+		 */
+		private String rules;
+
+		/**
+		 * Whether the Karotz is shared between folders instead of jobs
+		 */
+		private boolean fairShareByFolder;
+
+		/**
+		 * Weight of each job or folder, as lines of name=weight
+		 */
+		private String fairShareWeights;
+
+		/**
+		 * Maximum number of pending notifications of a job
+		 */
+		private Integer fairShareCap;
+
+		/**
+		 * Whether chains of upstream and downstream builds are announced once
+		 */
+		private boolean collapseChains;
+
+		/**
+		 * Time a chain of builds may make no progress, in minutes
+		 */
+		private Integer chainTimeout;
+
+		/**
+		 * Whether the jobs flapping between failure and success are silenced
+		 */
+		private boolean flapDetection;
+
+		/**
+		 * Lease file shared by the controllers using the same Karotz, null if
+		 * the Karotz is not shared
+		 */
+		private String leaseFile;
+
+		/**
+		 * Snapshot of the configuration, replaced as a whole on save
+		 */
+		private transient volatile KarotzConfig config;
+
 		public String getApiKey() {
 			return apiKey;
 		}
@@ -149,6 +306,111 @@ public class KarotzPublisher extends Notifier {
 			return eventHandler;
 		}
 
+		public double getRequestsPerSecond() {
+			return requestsPerSecond != null ? requestsPerSecond
+					: KarotzRateLimiter.DEFAULT_REQUESTS_PER_SECOND;
+		}
+
+		public int getBurstSize() {
+			return burstSize != null ? burstSize
+					: KarotzRateLimiter.DEFAULT_BURST_SIZE;
+		}
+
+		public boolean isConcurrentChannels() {
+			return concurrentChannels;
+		}
+
+		public KarotzEarconMode getEarconMode() {
+			try {
+				return earconMode != null ? KarotzEarconMode
+						.valueOf(earconMode) : KarotzEarconMode.NONE;
+			} catch (IllegalArgumentException e) {
+				return KarotzEarconMode.NONE;
+			}
+		}
+
+		public long getEarconDuration() {
+			return earconDuration != null ? earconDuration
+					: DEFAULT_EARCON_DURATION;
+		}
+
+		public String getEarconPath(KarotzEvent event) {
+			return earconPaths != null ? earconPaths.get(event.name()) : null;
+		}
+
+		public String getEarconName(KarotzEvent event) {
+			return earconNames != null ? earconNames.get(event.name()) : null;
+		}
+
+		public boolean isRadiatorMode() {
+			return radiatorMode;
+		}
+
+		public String getRadiatorJobs() {
+			return radiatorJobs;
+		}
+
+		public boolean isGlobalMode() {
+			return globalMode;
+		}
+
+		public String getGlobalJobs() {
+			return globalJobs;
+		}
+
+		public boolean isPrewarm() {
+			return prewarm;
+		}
+
+		public String getRules() {
+			return rules;
+		}
+
+		public boolean isFairShareByFolder() {
+			return fairShareByFolder;
+		}
+
+		public String getFairShareWeights() {
+			return fairShareWeights;
+		}
+
+		public int getFairShareCap() {
+			return fairShareCap != null ? fairShareCap : DEFAULT_FAIR_SHARE_CAP;
+		}
+
+		public boolean isCollapseChains() {
+			return collapseChains;
+		}
+
+		public int getChainTimeout() {
+			return chainTimeout != null ? chainTimeout : DEFAULT_CHAIN_TIMEOUT;
+		}
+
+		public boolean isFlapDetection() {
+			return flapDetection;
+		}
+
+		public String getLeaseFile() {
+			return leaseFile;
+		}
+
+		public KarotzEvent[] getEvents() {
+			return KarotzEvent.values();
+		}
+
+		/**
+		 * Gets the current configuration snapshot.
+		 * 
+		 * @return the configuration
+		 */
+		public KarotzConfig getConfig() {
+			return config;
+		}
+
+		public KarotzRateLimiter getRateLimiter() {
+			return KarotzRateLimiter.forApiKey(apiKey);
+		}
+
 		public KarotzEventHandlerDescriptor getDefaultEventHandler() {
 			return Jenkins.getInstance().getDescriptorByType(
 					KarotzDefaultEventHandler.DescriptorImpl.class);
@@ -156,6 +418,9 @@ public class KarotzPublisher extends Notifier {
 
 		public KarotzPublisherDescriptor() {
 			load();
+			KarotzRateLimiter.configure(apiKey, getRequestsPerSecond(),
+					getBurstSize());
+			config = new KarotzConfig(this);
 		}
 
 		@Override
@@ -170,6 +435,32 @@ public class KarotzPublisher extends Notifier {
 						apiKey);
 			}
 
+			requestsPerSecond = json.optDouble("requestsPerSecond",
+					KarotzRateLimiter.DEFAULT_REQUESTS_PER_SECOND);
+			burstSize = json.optInt("burstSize",
+					KarotzRateLimiter.DEFAULT_BURST_SIZE);
+			if (requestsPerSecond <= 0 || burstSize <= 0) {
+				throw new FormException(
+						"Requests per second and burst size should be positive.",
+						"requestsPerSecond");
+			}
+			KarotzRateLimiter.configure(apiKey, requestsPerSecond, burstSize);
+			concurrentChannels = json.optBoolean("concurrentChannels");
+			prewarm = json.optBoolean("prewarm");
+			leaseFile = Util.fixEmptyAndTrim(json.optString("leaseFile"));
+			configureEarcons(json);
+			radiatorMode = json.optBoolean("radiatorMode");
+			radiatorJobs = getPattern(json, "radiatorJobs");
+			globalMode = json.optBoolean("globalMode");
+			globalJobs = getPattern(json, "globalJobs");
+			rules = getRules(json);
+			configureFairShare(json);
+			configureChains(json);
+			flapDetection = json.optBoolean("flapDetection");
+			if (!flapDetection) {
+				KarotzFlapDetector.get().clear();
+			}
+
 			KarotzEventHandler h = req.bindJSON(KarotzEventHandler.class,
 					json.optJSONObject("eventHandler"));
 			if (h == null) {
@@ -178,10 +469,102 @@ public class KarotzPublisher extends Notifier {
 				eventHandler = h;
 			}
 
+			config = new KarotzConfig(this);
 			save();
 			return true;
 		}
 
+		private static String getPattern(JSONObject json, String field)
+				throws FormException {
+			String pattern = Util.fixEmptyAndTrim(json.optString(field));
+			if (pattern != null) {
+				try {
+					Pattern.compile(pattern);
+				} catch (PatternSyntaxException e) {
+					throw new FormException("Invalid regular expression: "
+							+ e.getMessage(), field);
+				}
+			}
+			return pattern;
+		}
+
+		private static String getRules(JSONObject json) throws FormException {
+			String rules = Util.fixEmptyAndTrim(json.optString("rules"));
+			try {
+				KarotzRules.compile(rules);
+			} catch (IllegalArgumentException e) {
+				throw new FormException(e.getMessage(), "rules");
+			}
+			return rules;
+		}
+
+		private void configureFairShare(JSONObject json) throws FormException {
+			fairShareByFolder = json.optBoolean("fairShareByFolder");
+			String weights = Util.fixEmptyAndTrim(json
+					.optString("fairShareWeights"));
+			try {
+				KarotzFairQueue.parseWeights(weights);
+			} catch (IllegalArgumentException e) {
+				throw new FormException(e.getMessage(), "fairShareWeights");
+			}
+			fairShareWeights = weights;
+			fairShareCap = json.optInt("fairShareCap", DEFAULT_FAIR_SHARE_CAP);
+			if (fairShareCap <= 0) {
+				throw new FormException(
+						"The number of pending notifications per job should be positive.",
+						"fairShareCap");
+			}
+		}
+
+		private void configureChains(JSONObject json) throws FormException {
+			collapseChains = json.optBoolean("collapseChains");
+			chainTimeout = json.optInt("chainTimeout", DEFAULT_CHAIN_TIMEOUT);
+			if (chainTimeout <= 0) {
+				throw new FormException(
+						"The chain timeout should be positive.",
+						"chainTimeout");
+			}
+			if (!collapseChains) {
+				KarotzChains.get().clear();
+			}
+		}
+
+		private void configureEarcons(JSONObject json) throws FormException {
+			Map<String, String> paths = new HashMap<String, String>();
+			Map<String, String> names = new HashMap<String, String>();
+			KarotzEarcons earcons = new KarotzEarcons();
+			for (KarotzEvent event : KarotzEvent.values()) {
+				String field = "earcon" + event.name();
+				String path = Util.fixEmptyAndTrim(json.optString(field));
+				if (path == null) {
+					continue;
+				}
+				try {
+					names.put(event.name(), earcons.store(KarotzEarcons
+							.getSource(path)));
+				} catch (IOException e) {
+					throw new FormException("Failed to read earcon " + path
+							+ ": " + e.getMessage(), field);
+				}
+				paths.put(event.name(), path);
+			}
+			earconMode = json.optString("earconMode",
+					KarotzEarconMode.NONE.name());
+			earconDuration = (long) json.optInt("earconDuration",
+					(int) DEFAULT_EARCON_DURATION);
+			earconPaths = paths;
+			earconNames = names;
+		}
+
+		public ListBoxModel doFillEarconModeItems() {
+			ListBoxModel model = new ListBoxModel();
+			for (KarotzEarconMode mode : KarotzEarconMode.values()) {
+				model.add(new ListBoxModel.Option(mode.getDisplayName(), mode
+						.name(), mode == getEarconMode()));
+			}
+			return model;
+		}
+
 		public FormValidation doCheckApiKey(@QueryParameter String value)
 				throws IOException, ServletException {
 			return FormValidation.validateRequired(value);
@@ -197,6 +580,77 @@ public class KarotzPublisher extends Notifier {
 			return FormValidation.validateRequired(value);
 		}
 
+		public FormValidation doCheckRequestsPerSecond(
+				@QueryParameter String value) throws IOException,
+				ServletException {
+			try {
+				if (Double.parseDouble(value) > 0) {
+					return FormValidation.ok();
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+			return FormValidation.error("should be a positive number.");
+		}
+
+		public FormValidation doCheckBurstSize(@QueryParameter String value)
+				throws IOException, ServletException {
+			return FormValidation.validatePositiveInteger(value);
+		}
+
+		public FormValidation doCheckRadiatorJobs(@QueryParameter String value)
+				throws IOException, ServletException {
+			return validatePattern(value);
+		}
+
+		public FormValidation doCheckGlobalJobs(@QueryParameter String value)
+				throws IOException, ServletException {
+			return validatePattern(value);
+		}
+
+		public FormValidation doCheckRules(@QueryParameter String value)
+				throws IOException, ServletException {
+			try {
+				KarotzRules.compile(value);
+				return FormValidation.ok();
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		public FormValidation doCheckFairShareWeights(
+				@QueryParameter String value) throws IOException,
+				ServletException {
+			try {
+				KarotzFairQueue.parseWeights(value);
+				return FormValidation.ok();
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		public FormValidation doCheckFairShareCap(@QueryParameter String value)
+				throws IOException, ServletException {
+			return FormValidation.validatePositiveInteger(value);
+		}
+
+		public FormValidation doCheckChainTimeout(@QueryParameter String value)
+				throws IOException, ServletException {
+			return FormValidation.validatePositiveInteger(value);
+		}
+
+		private static FormValidation validatePattern(String value) {
+			if (Util.fixEmptyAndTrim(value) == null) {
+				return FormValidation.ok();
+			}
+			try {
+				Pattern.compile(value.trim());
+			} catch (PatternSyntaxException e) {
+				return FormValidation.error(e.getDescription());
+			}
+			return FormValidation.ok();
+		}
+
 		public FormValidation doStartInteractiveMode(
 				@QueryParameter String apiKey,
 				@QueryParameter String secretKey,
@@ -207,10 +661,13 @@ public class KarotzPublisher extends Notifier {
 			if (_apiKey == null || _secretKey == null || _installId == null) {
 				return FormValidation.warning("enter all settings.");
 			}
+			// the settings being entered, through the lease of the Karotz
 			KarotzClient client = new KarotzClient(_apiKey, _secretKey,
-					_installId);
+					_installId, getConfig().getClient().getLease());
 			try {
 				client.startInteractiveMode();
+				// nothing to send, stopped as usual once idle
+				client.stopInteractiveMode();
 			} catch (KarotzException e) {
 				return FormValidation.warning(e.getMessage());
 			}
@@ -218,9 +675,8 @@ public class KarotzPublisher extends Notifier {
 		}
 
 		public FormValidation doStopInteractiveMode() {
-			KarotzClient client = new KarotzClient(apiKey, secretKey, installId);
 			try {
-				client.stopInteractiveMode();
+				getConfig().getClient().stopInteractiveModeNow();
 			} catch (KarotzException e) {
 				return FormValidation.warning(e.getMessage());
 			}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.Result;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.karotz.action.LedColor;
+import org.jenkinsci.plugins.karotz.action.LedLightAction;
+
+/**
+ * Worst-of status of a set of jobs, shown by the LED of the Karotz like a
+ * build radiator.
+ * <p>
+ * Each job gets a slot in an array holding the severity of its last result,
+ * and the number of jobs of each severity is counted, so that a build
+ * completion updates the aggregate in constant time. The LED is only lit
+ * when the aggregate color changes.
+ */
+public class KarotzRadiator {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger.getLogger(KarotzRadiator.class
+			.getName());
+
+	private static final byte UNKNOWN = 0;
+
+	private static final byte SUCCESS = 1;
+
+	private static final byte UNSTABLE = 2;
+
+	private static final byte FAILURE = 3;
+
+	/**
+	 * Color shown for each severity
+	 */
+	private static final LedColor[] COLORS = { null, LedColor.GREEN,
+			LedColor.YELLOW, LedColor.RED };
+
+	/**
+	 * Slot of each job
+	 */
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+	/**
+	 * Job of each slot
+	 */
+	private String[] names = new String[64];
+
+	/**
+	 * Severity of each slot
+	 */
+	private byte[] severities = new byte[64];
+
+	/**
+	 * Number of jobs of each severity
+	 */
+	private final int[] counts = new int[COLORS.length];
+
+	/**
+	 * Color currently shown by the LED, null if unknown
+	 */
+	private LedColor shown;
+
+	private final Object publishLock = new Object();
+
+	/**
+	 * Records the result of the last build of a job.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @param result
+	 *            result of the build
+	 * @return true if the aggregate color has changed
+	 */
+	public synchronized boolean update(String jobName, Result result) {
+		byte severity = getSeverity(result);
+		if (severity == UNKNOWN) {
+			return false;
+		}
+		LedColor before = getColor();
+		Integer slot = slots.get(jobName);
+		if (slot == null) {
+			slot = slots.size();
+			slots.put(jobName, slot);
+			if (slot == severities.length) {
+				severities = Arrays.copyOf(severities, slot * 2);
+				names = Arrays.copyOf(names, slot * 2);
+			}
+			names[slot] = jobName;
+		}
+		counts[severities[slot]]--;
+		severities[slot] = severity;
+		counts[severity]++;
+		return getColor() != before;
+	}
+
+	/**
+	 * Forgets a job, and the jobs it contains if it is a folder. The last slot
+	 * is moved into each freed one, so that the slots stay contiguous.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @return true if the aggregate color has changed
+	 */
+	public synchronized boolean remove(String jobName) {
+		LedColor before = getColor();
+		String prefix = jobName + '/';
+		for (int slot = slots.size() - 1; slot >= 0; slot--) {
+			if (!names[slot].equals(jobName) && !names[slot].startsWith(prefix)) {
+				continue;
+			}
+			slots.remove(names[slot]);
+			counts[severities[slot]]--;
+			int last = slots.size();
+			severities[slot] = severities[last];
+			names[slot] = names[last];
+			if (slot != last) {
+				slots.put(names[slot], slot);
+			}
+			severities[last] = UNKNOWN;
+			names[last] = null;
+		}
+		return getColor() != before;
+	}
+
+	/**
+	 * Forgets all the jobs.
+	 */
+	public synchronized void clear() {
+		slots.clear();
+		Arrays.fill(names, null);
+		Arrays.fill(severities, UNKNOWN);
+		Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * Gets the aggregate color: the color of the worst result.
+	 *
+	 * @return the color, or null if no job has been built yet
+	 */
+	public synchronized LedColor getColor() {
+		for (int severity = FAILURE; severity > UNKNOWN; severity--) {
+			if (counts[severity] > 0) {
+				return COLORS[severity];
+			}
+		}
+		return null;
+	}
+
+	public synchronized int getJobCount() {
+		return slots.size();
+	}
+
+	/**
+	 * Lights the LED with the aggregate color, unless it is already shown.
+	 *
+	 * @param client
+	 *            the client
+	 */
+	public void publish(KarotzClient client) {
+		synchronized (publishLock) {
+			LedColor color = getColor();
+			if (color == null || color == shown) {
+				return;
+			}
+			try {
+				client.startInteractiveMode();
+			} catch (KarotzException e) {
+				LOGGER.log(Level.WARNING, "Failed to show " + color, e);
+				return;
+			}
+			try {
+				new LedLightAction(color).execute(client);
+				shown = color;
+			} catch (KarotzException e) {
+				LOGGER.log(Level.WARNING, "Failed to show " + color, e);
+			} finally {
+				try {
+					client.stopInteractiveMode();
+				} catch (KarotzException e) {
+					LOGGER.log(Level.WARNING, "Failed to stop interactive mode",
+							e);
+				}
+			}
+		}
+	}
+
+	private static byte getSeverity(Result result) {
+		if (result == Result.SUCCESS) {
+			return SUCCESS;
+		} else if (result == Result.UNSTABLE) {
+			return UNSTABLE;
+		} else if (result == Result.FAILURE) {
+			return FAILURE;
+		}
+		return UNKNOWN;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+
+/**
+ * Feeds the {@link KarotzRadiator} with the results of the jobs matching the
+ * radiator pattern, when the radiator mode is enabled.
+ * <p>
+ * The radiator is only updated on {@link KarotzExecutors#radiator()}, so
+ * that the thread of a build never waits for it, e.g. while it is filled
+ * with the last results of all the jobs.
+ */
+@Extension
+@SuppressWarnings("rawtypes")
+public class KarotzRadiatorListener extends RunListener<AbstractBuild> {
+
+	private static final KarotzRadiator RADIATOR = new KarotzRadiator();
+
+	/**
+	 * Configuration the radiator has been filled with, only used on the
+	 * radiator thread
+	 */
+	private static KarotzConfig seededWith;
+
+	public KarotzRadiatorListener() {
+		super(AbstractBuild.class);
+	}
+
+	public KarotzRadiator getRadiator() {
+		return RADIATOR;
+	}
+
+	@Override
+	public void onCompleted(AbstractBuild build, TaskListener listener) {
+		final KarotzConfig config = getConfig();
+		if (config == null) {
+			return;
+		}
+		final String jobName = build.getProject().getFullName();
+		final Result result = build.getResult();
+		KarotzExecutors.radiator().submit(new Runnable() {
+			public void run() {
+				boolean changed = seed(config);
+				if (config.isRadiatorJob(jobName)) {
+					changed |= RADIATOR.update(jobName, result);
+				}
+				if (changed) {
+					publish(config);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the configuration, if the radiator mode is enabled.
+	 *
+	 * @return the configuration, or null
+	 */
+	private static KarotzConfig getConfig() {
+		KarotzConfig config = Jenkins.getInstance()
+				.getDescriptorByType(KarotzPublisherDescriptor.class)
+				.getConfig();
+		return config != null && config.isRadiatorMode() ? config : null;
+	}
+
+	/**
+	 * Fills the radiator with the last results of the jobs, once for each
+	 * configuration.
+	 *
+	 * @return true if the radiator has been filled
+	 */
+	private static boolean seed(KarotzConfig config) {
+		if (seededWith == config) {
+			return false;
+		}
+		RADIATOR.clear();
+		for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(
+				AbstractProject.class)) {
+			if (!config.isRadiatorJob(project.getFullName())) {
+				continue;
+			}
+			AbstractBuild<?, ?> last = project.getLastCompletedBuild();
+			if (last != null) {
+				RADIATOR.update(project.getFullName(), last.getResult());
+			}
+		}
+		seededWith = config;
+		return true;
+	}
+
+	private static void publish(final KarotzConfig config) {
+		KarotzExecutors.channels().submit(new Runnable() {
+			public void run() {
+				RADIATOR.publish(config.getClient());
+			}
+		});
+	}
+
+	/**
+	 * Keeps the radiator in sync with the jobs, so that a deleted or renamed
+	 * job does not keep the LED red.
+	 */
+	@Extension
+	public static class JobListener extends ItemListener {
+
+		@Override
+		public void onDeleted(Item item) {
+			final KarotzConfig config = getConfig();
+			if (config == null) {
+				return;
+			}
+			final String jobName = item.getFullName();
+			KarotzExecutors.radiator().submit(new Runnable() {
+				public void run() {
+					boolean changed = seed(config);
+					changed |= RADIATOR.remove(jobName);
+					if (changed) {
+						publish(config);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void onRenamed(final Item item, String oldName, String newName) {
+			final KarotzConfig config = getConfig();
+			if (config == null) {
+				return;
+			}
+			String parent = item.getParent().getFullName();
+			final String oldJobName = parent.length() > 0 ? parent + '/'
+					+ oldName : oldName;
+			KarotzExecutors.radiator().submit(new Runnable() {
+				public void run() {
+					if (!(item instanceof AbstractProject)) {
+						// a folder: all of its jobs have been renamed
+						seededWith = null;
+					}
+					boolean changed = seed(config);
+					changed |= RADIATOR.remove(oldJobName);
+					if (item instanceof AbstractProject
+							&& config.isRadiatorJob(item.getFullName())) {
+						AbstractBuild<?, ?> last = ((AbstractProject<?, ?>) item)
+								.getLastCompletedBuild();
+						if (last != null) {
+							changed |= RADIATOR.update(item.getFullName(),
+									last.getResult());
+						}
+					}
+					if (changed) {
+						publish(config);
+					}
+				}
+			});
+		}
+	}
+}
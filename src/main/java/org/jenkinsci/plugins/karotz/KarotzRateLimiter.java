@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token bucket limiting the number of requests sent to the Karotz API, shared
+ * by all the builds using the same API key.
+ * <p>
+ * The bucket is implemented as a "virtual scheduling" algorithm: a single
+ * atomic value holds the theoretical time of the next request, so that callers
+ * take a permit with a compare-and-set, without holding any lock. A caller
+ * refused a permit is told how long to wait instead of being blocked.
+ */
+public final class KarotzRateLimiter {
+
+	/**
+	 * Default number of requests per second
+	 */
+	public static final double DEFAULT_REQUESTS_PER_SECOND = 5;
+
+	/**
+	 * Default number of requests which can be sent at once
+	 */
+	public static final int DEFAULT_BURST_SIZE = 10;
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzRateLimiter.class.getName());
+
+	/**
+	 * Limiters by API key
+	 */
+	private static final ConcurrentMap<String, KarotzRateLimiter> LIMITERS = new ConcurrentHashMap<String, KarotzRateLimiter>();
+
+	/**
+	 * Current settings, replaced as a whole when reconfigured
+	 */
+	private volatile Settings settings;
+
+	/**
+	 * Theoretical time (in nanoseconds) of the next request if requests were
+	 * sent exactly at the sustained rate
+	 */
+	private final AtomicLong nextFreeTime;
+
+	private final AtomicLong granted = new AtomicLong();
+
+	private final AtomicLong delayed = new AtomicLong();
+
+	private final AtomicLong totalWaitTime = new AtomicLong();
+
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	KarotzRateLimiter(double requestsPerSecond, int burstSize, long now) {
+		this.settings = new Settings(requestsPerSecond, burstSize);
+		this.nextFreeTime = new AtomicLong(now);
+	}
+
+	/**
+	 * Gets the limiter of the given API key, creating it with the default
+	 * settings if needed.
+	 *
+	 * @param apiKey
+	 *            application APIKey
+	 * @return the limiter
+	 */
+	public static KarotzRateLimiter forApiKey(String apiKey) {
+		String key = apiKey == null ? "" : apiKey;
+		KarotzRateLimiter limiter = LIMITERS.get(key);
+		if (limiter == null) {
+			limiter = new KarotzRateLimiter(DEFAULT_REQUESTS_PER_SECOND,
+					DEFAULT_BURST_SIZE, System.nanoTime());
+			KarotzRateLimiter existing = LIMITERS.putIfAbsent(key, limiter);
+			if (existing != null) {
+				limiter = existing;
+			}
+		}
+		return limiter;
+	}
+
+	/**
+	 * Configures the limiter of the given API key.
+	 *
+	 * @param apiKey
+	 *            application APIKey
+	 * @param requestsPerSecond
+	 *            sustained rate
+	 * @param burstSize
+	 *            number of requests which can be sent at once
+	 */
+	public static void configure(String apiKey, double requestsPerSecond,
+			int burstSize) {
+		forApiKey(apiKey).settings = new Settings(requestsPerSecond,
+				burstSize);
+	}
+
+	/**
+	 * Takes a permit if one is available right now. The caller is never
+	 * blocked: when it is told to wait, it should send its request later,
+	 * e.g. by queuing it again.
+	 *
+	 * @return 0 if the permit has been taken, else the time to wait (in
+	 *         milliseconds) before trying again
+	 */
+	public long tryAcquire() {
+		long wait = tryReserve(System.nanoTime());
+		if (wait <= 0) {
+			return 0;
+		}
+		LOGGER.log(Level.FINE, "Throttled for {0}ms", wait / 1000000d);
+		// rounded up, so that the permit is available when trying again
+		return TimeUnit.NANOSECONDS.toMillis(wait + 999999);
+	}
+
+	/**
+	 * Takes a permit even if none is available, for a request which cannot
+	 * be put off. The requests sent afterwards wait longer.
+	 */
+	public void acquireNow() {
+		reserve(System.nanoTime());
+	}
+
+	/**
+	 * Gets the time until a permit is available, without taking it.
+	 *
+	 * @return time to wait in milliseconds, 0 if a permit is available
+	 */
+	public long getDelayMillis() {
+		long wait = delay(settings, nextFreeTime.get(), System.nanoTime());
+		return wait > 0 ? TimeUnit.NANOSECONDS.toMillis(wait + 999999) : 0;
+	}
+
+	/**
+	 * Reserves a permit only if it can be used right now.
+	 *
+	 * @param now
+	 *            current time in nanoseconds
+	 * @return 0 if the permit has been reserved, else the time to wait (in
+	 *         nanoseconds) before trying again
+	 */
+	long tryReserve(long now) {
+		Settings s = settings;
+		while (true) {
+			long current = nextFreeTime.get();
+			long wait = delay(s, current, now);
+			if (wait > 0) {
+				delayed.incrementAndGet();
+				totalWaitTime.addAndGet(wait);
+				updateMaxWait(wait);
+				return wait;
+			}
+			if (nextFreeTime.compareAndSet(current, Math.max(current, now)
+					+ s.interval)) {
+				granted.incrementAndGet();
+				return 0;
+			}
+		}
+	}
+
+	private static long delay(Settings s, long current, long now) {
+		// an idle bucket cannot hold more than burstSize permits
+		return Math.max(current, now) - now - s.tolerance;
+	}
+
+	private void updateMaxWait(long wait) {
+		long max = maxWaitTime.get();
+		while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+			max = maxWaitTime.get();
+		}
+	}
+
+	/**
+	 * Reserves a permit.
+	 *
+	 * @param now
+	 *            current time in nanoseconds
+	 * @return the time to wait (in nanoseconds) before using the permit
+	 */
+	long reserve(long now) {
+		Settings s = settings;
+		long next;
+		long wait;
+		while (true) {
+			long current = nextFreeTime.get();
+			next = Math.max(current, now) + s.interval;
+			wait = delay(s, current, now);
+			if (nextFreeTime.compareAndSet(current, next)) {
+				break;
+			}
+		}
+
+		granted.incrementAndGet();
+		if (wait > 0) {
+			delayed.incrementAndGet();
+			totalWaitTime.addAndGet(wait);
+			updateMaxWait(wait);
+			return wait;
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets the number of permits which could be used right now.
+	 *
+	 * @return available permits
+	 */
+	public double getAvailablePermits() {
+		return availablePermits(System.nanoTime());
+	}
+
+	double availablePermits(long now) {
+		Settings s = settings;
+		long start = Math.max(nextFreeTime.get(), now);
+		double available = (double) (now + s.tolerance + s.interval - start)
+				/ s.interval;
+		return Math.max(0, Math.min(s.burstSize, available));
+	}
+
+	/**
+	 * Gets how full the limiter is, from 0 (idle) to 1 (every request has to
+	 * wait).
+	 *
+	 * @return saturation
+	 */
+	public double getSaturation() {
+		return 1 - getAvailablePermits() / settings.burstSize;
+	}
+
+	/**
+	 * Gets the number of permits granted so far.
+	 *
+	 * @return granted permits
+	 */
+	public long getGrantedCount() {
+		return granted.get();
+	}
+
+	/**
+	 * Gets the number of requests which had to wait for a permit.
+	 *
+	 * @return delayed requests
+	 */
+	public long getDelayedCount() {
+		return delayed.get();
+	}
+
+	/**
+	 * Gets the total time requests were told to wait for a permit.
+	 *
+	 * @return total wait in milliseconds
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get());
+	}
+
+	/**
+	 * Gets the longest time a request was told to wait for a permit.
+	 *
+	 * @return longest wait in milliseconds
+	 */
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+	}
+
+	public double getRequestsPerSecond() {
+		return settings.requestsPerSecond;
+	}
+
+	public int getBurstSize() {
+		return settings.burstSize;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%.1f req/s, burst %d, saturation %.0f%%, %d granted, "
+						+ "%d delayed (max %dms)", getRequestsPerSecond(),
+				getBurstSize(), getSaturation() * 100, getGrantedCount(),
+				getDelayedCount(), getMaxWaitMillis());
+	}
+
+	/**
+	 * Immutable settings of a limiter.
+	 */
+	private static final class Settings {
+
+		private final double requestsPerSecond;
+
+		private final int burstSize;
+
+		/**
+		 * Nanoseconds between two permits
+		 */
+		private final long interval;
+
+		/**
+		 * How far ahead of the sustained rate requests are allowed to go
+		 */
+		private final long tolerance;
+
+		Settings(double requestsPerSecond, int burstSize) {
+			if (requestsPerSecond <= 0 || burstSize <= 0) {
+				throw new IllegalArgumentException(
+						"rate and burst size should be positive.");
+			}
+			this.requestsPerSecond = requestsPerSecond;
+			this.burstSize = burstSize;
+			this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+			this.tolerance = interval * (burstSize - 1);
+		}
+	}
+}
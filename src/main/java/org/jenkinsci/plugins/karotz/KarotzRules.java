@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rules choosing the builds announced by the Karotz, checked before anything
+ * is queued, so that the builds not announced never reach the
+ * {@link KarotzClient}.
+ * <p>
+ * One rule per line, the first matching rule wins:
+ *
+ * <pre>
+ * # every failure, but only 1 success in 10 of the nightly jobs
+ * announce event=FAILURE,UNSTABLE
+ * announce job=nightly-.* event=SUCCESS sample=10
+ * ignore hours=22-7
+ * announce from=FAILURE
+ * </pre>
+ *
+ * A rule is <code>announce</code> or <code>ignore</code>, followed by the
+ * conditions, all of which must hold:
+ * <ul>
+ * <li><code>job</code>: regular expression matching the full name of the job,
+ * e.g. <code>team-a/.*</code> for the jobs of a folder</li>
+ * <li><code>event</code>: comma separated events</li>
+ * <li><code>from</code>: comma separated results of the previous build,
+ * <code>NONE</code> for the first build</li>
+ * <li><code>hours</code>: hours of the day, e.g. <code>8-18</code> from 8:00
+ * to 18:59, or <code>22-7</code> over the night</li>
+ * </ul>
+ * An <code>announce</code> rule may sample the builds it matches with
+ * <code>sample=N</code>, announcing the first one of every N builds of a job.
+ * The count goes on when the configuration is saved again, as long as the
+ * text of the rule is unchanged. An <code>ignore</code> rule does not sample,
+ * its <code>sample</code> is not checked.
+ * With no rule at all, every build is announced. Otherwise, builds matching
+ * no rule are not announced.
+ * <p>
+ * The rules are compiled once, when the configuration is saved: patterns are
+ * compiled and the events, results and hours become bit masks.
+ */
+public final class KarotzRules {
+
+	/**
+	 * Results of the previous build, in the order of their bits
+	 */
+	private static final Result[] RESULTS = { Result.SUCCESS, Result.UNSTABLE,
+			Result.FAILURE, Result.NOT_BUILT, Result.ABORTED };
+
+	private static final String[] RESULT_NAMES = { "SUCCESS", "UNSTABLE",
+			"FAILURE", "NOT_BUILT", "ABORTED", "NONE" };
+
+	/**
+	 * Bit of a first build, without previous result
+	 */
+	private static final int NO_RESULT = 1 << RESULTS.length;
+
+	private static final int ALL = -1;
+
+	/**
+	 * Number of builds matched by job, of each sampling rule by its text, so
+	 * that compiling the same rule again does not start the count over
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> COUNTS = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>>();
+
+	/**
+	 * Announces every build
+	 */
+	public static final KarotzRules ALL_BUILDS = new KarotzRules(
+			Collections.<Rule> emptyList());
+
+	private final List<Rule> rules;
+
+	private KarotzRules(List<Rule> rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Compiles rules.
+	 *
+	 * @param text
+	 *            the rules, one per line, may be null
+	 * @return the compiled rules
+	 * @throws IllegalArgumentException
+	 *             if a rule is invalid
+	 */
+	public static KarotzRules compile(String text) {
+		List<Rule> rules = new ArrayList<Rule>();
+		if (text != null) {
+			for (String line : text.split("\n")) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					rules.add(new Rule(line));
+				}
+			}
+		}
+		return rules.isEmpty() ? ALL_BUILDS : new KarotzRules(rules);
+	}
+
+	/**
+	 * Whether a build is announced.
+	 *
+	 * @param build
+	 *            the build
+	 * @param event
+	 *            the event to announce
+	 * @return true if the event should be announced
+	 */
+	public boolean isAnnounced(AbstractBuild<?, ?> build, KarotzEvent event) {
+		if (rules.isEmpty()) {
+			return true;
+		}
+		Run<?, ?> previous = build.getPreviousBuild();
+		return isAnnounced(build.getProject().getFullName(), event,
+				previous != null ? previous.getResult() : null, Calendar
+						.getInstance().get(Calendar.HOUR_OF_DAY));
+	}
+
+	/**
+	 * Whether an event is announced.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @param event
+	 *            the event
+	 * @param previous
+	 *            result of the previous build, null if none
+	 * @param hour
+	 *            hour of the day, from 0 to 23
+	 * @return true if the event should be announced
+	 */
+	boolean isAnnounced(String jobName, KarotzEvent event, Result previous,
+			int hour) {
+		if (rules.isEmpty()) {
+			return true;
+		}
+		int eventBit = 1 << event.ordinal();
+		int resultBit = getResultBit(previous);
+		int hourBit = 1 << hour;
+		for (Rule rule : rules) {
+			if (rule.matches(jobName, eventBit, resultBit, hourBit)) {
+				return rule.announce && rule.sample(jobName);
+			}
+		}
+		return false;
+	}
+
+	private static int getResultBit(Result result) {
+		for (int i = 0; i < RESULTS.length; i++) {
+			if (RESULTS[i] == result) {
+				return 1 << i;
+			}
+		}
+		return NO_RESULT;
+	}
+
+	/**
+	 * A compiled rule.
+	 */
+	private static final class Rule {
+
+		private final boolean announce;
+
+		/**
+		 * Jobs matched, null for all the jobs
+		 */
+		private final Pattern job;
+
+		private final int events;
+
+		private final int results;
+
+		private final int hours;
+
+		/**
+		 * Announces one build of every sample builds
+		 */
+		private final int sample;
+
+		/**
+		 * Number of builds matched by job, when sampling, shared by the
+		 * rules of the same text
+		 */
+		private final ConcurrentMap<String, AtomicLong> counts;
+
+		Rule(String line) {
+			String[] words = line.split("\\s+");
+			if ("announce".equals(words[0])) {
+				announce = true;
+			} else if ("ignore".equals(words[0])) {
+				announce = false;
+			} else {
+				throw new IllegalArgumentException(
+						"A rule should start with announce or ignore: " + line);
+			}
+			Pattern job = null;
+			int events = ALL;
+			int results = ALL;
+			int hours = ALL;
+			int sample = 1;
+			for (int i = 1; i < words.length; i++) {
+				int equals = words[i].indexOf('=');
+				if (equals <= 0) {
+					throw new IllegalArgumentException("Expected name=value: "
+							+ words[i]);
+				}
+				String name = words[i].substring(0, equals);
+				String value = words[i].substring(equals + 1);
+				if ("job".equals(name)) {
+					job = compilePattern(value);
+				} else if ("event".equals(name)) {
+					events = parseEvents(value);
+				} else if ("from".equals(name)) {
+					results = parseResults(value);
+				} else if ("hours".equals(name)) {
+					hours = parseHours(value);
+				} else if ("sample".equals(name)) {
+					if (announce) {
+						sample = parseSample(value);
+					}
+				} else {
+					throw new IllegalArgumentException("Unknown condition: "
+							+ words[i]);
+				}
+			}
+			this.job = job;
+			this.events = events;
+			this.results = results;
+			this.hours = hours;
+			this.sample = sample;
+			this.counts = sample > 1 ? getCounts(join(words)) : null;
+		}
+
+		private static ConcurrentMap<String, AtomicLong> getCounts(String text) {
+			ConcurrentMap<String, AtomicLong> counts = COUNTS.get(text);
+			if (counts == null) {
+				ConcurrentMap<String, AtomicLong> created = new ConcurrentHashMap<String, AtomicLong>();
+				counts = COUNTS.putIfAbsent(text, created);
+				if (counts == null) {
+					counts = created;
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * Gets the text of a rule, whatever the spaces between its words.
+		 */
+		private static String join(String[] words) {
+			StringBuilder text = new StringBuilder(words[0]);
+			for (int i = 1; i < words.length; i++) {
+				text.append(' ').append(words[i]);
+			}
+			return text.toString();
+		}
+
+		boolean matches(String jobName, int eventBit, int resultBit,
+				int hourBit) {
+			return (events & eventBit) != 0 && (results & resultBit) != 0
+					&& (hours & hourBit) != 0
+					&& (job == null || job.matcher(jobName).matches());
+		}
+
+		/**
+		 * Counts a build matched by this rule.
+		 *
+		 * @return true if the build is in the sample
+		 */
+		boolean sample(String jobName) {
+			if (sample == 1) {
+				return true;
+			}
+			AtomicLong count = counts.get(jobName);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = counts.putIfAbsent(jobName, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+			return count.getAndIncrement() % sample == 0;
+		}
+
+		private static Pattern compilePattern(String regex) {
+			try {
+				return Pattern.compile(regex);
+			} catch (PatternSyntaxException e) {
+				throw new IllegalArgumentException(
+						"Invalid regular expression: " + e.getMessage());
+			}
+		}
+
+		private static int parseEvents(String value) {
+			int mask = 0;
+			for (String name : value.split(",")) {
+				try {
+					mask |= 1 << KarotzEvent.valueOf(name).ordinal();
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown event: " + name);
+				}
+			}
+			return mask;
+		}
+
+		private static int parseResults(String value) {
+			int mask = 0;
+			for (String name : value.split(",")) {
+				int bit = 0;
+				for (int i = 0; i < RESULT_NAMES.length; i++) {
+					if (RESULT_NAMES[i].equals(name)) {
+						bit = 1 << i;
+					}
+				}
+				if (bit == 0) {
+					throw new IllegalArgumentException("Unknown result: "
+							+ name);
+				}
+				mask |= bit;
+			}
+			return mask;
+		}
+
+		private static int parseHours(String value) {
+			String[] bounds = value.split("-");
+			if (bounds.length != 2) {
+				throw new IllegalArgumentException("Expected hours=from-to: "
+						+ value);
+			}
+			int from = parseHour(bounds[0]);
+			int to = parseHour(bounds[1]);
+			int mask = 0;
+			for (int hour = from;; hour = (hour + 1) % 24) {
+				mask |= 1 << hour;
+				if (hour == to) {
+					return mask;
+				}
+			}
+		}
+
+		private static int parseHour(String value) {
+			try {
+				int hour = Integer.parseInt(value);
+				if (hour >= 0 && hour < 24) {
+					return hour;
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+			throw new IllegalArgumentException("Invalid hour: " + value);
+		}
+
+		private static int parseSample(String value) {
+			try {
+				int sample = Integer.parseInt(value);
+				if (sample > 0) {
+					return sample;
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+			throw new IllegalArgumentException("Invalid sample: " + value);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.Extension;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixRun;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+import org.jenkinsci.plugins.karotz.notification.KarotzDispatcher;
+import org.jenkinsci.plugins.karotz.notification.KarotzNotification;
+
+/**
+ * Announces the builds of the global jobs, when the global mode is enabled.
+ * <p>
+ * Notifications are only queued here, and sent in the background, so that
+ * builds never wait for the Karotz. The notifications of the builds which are
+ * over, aborted or deleted are dropped, whichever way they were queued. The
+ * session is prewarmed for the builds whose result is announced, see
+ * {@link KarotzPrewarmer}. A matrix build is announced once, its
+ * configurations staying silent, and so is a chain of builds, see
+ * {@link KarotzChains}.
+ */
+@Extension
+@SuppressWarnings("rawtypes")
+public class KarotzRunListener extends RunListener<AbstractBuild> {
+
+	public KarotzRunListener() {
+		super(AbstractBuild.class);
+	}
+
+	@Override
+	public void onStarted(AbstractBuild build, TaskListener listener) {
+		if (build instanceof MatrixRun) {
+			// announced once by its matrix build
+			return;
+		}
+		KarotzConfig config = getConfig();
+		if (config != null && config.isCollapseChains()) {
+			KarotzChains.get().started(build, config);
+		}
+		enqueue(build, KarotzEvent.START);
+		if (config != null && !config.isRadiatorMode()
+				&& (isGlobal(build, config) || hasPublisher(build))) {
+			KarotzPrewarmer.get().started(build, config);
+		}
+	}
+
+	@Override
+	public void onCompleted(AbstractBuild build, TaskListener listener) {
+		KarotzPrewarmer.get().completed(build);
+		KarotzDispatcher.get().completed(build);
+		if (build instanceof MatrixRun) {
+			return;
+		}
+		KarotzEvent event = KarotzEvent.forCompletedBuild(build);
+		if (event != null) {
+			enqueue(build, event);
+		}
+		KarotzConfig config = getConfig();
+		if (config != null && config.isCollapseChains()) {
+			// once its result is held, see KarotzPublisher#announce
+			KarotzChains.get().completed(build, config);
+		}
+	}
+
+	@Override
+	public void onDeleted(AbstractBuild build) {
+		KarotzDispatcher.get().deleted(build);
+	}
+
+	private void enqueue(AbstractBuild<?, ?> build, KarotzEvent event) {
+		KarotzConfig config = getConfig();
+		if (config == null || config.isRadiatorMode()
+				|| !isGlobal(build, config) || hasPublisher(build)) {
+			// not selected, or already announced by its publisher
+			return;
+		}
+		event = config.checkFlapping(build, event);
+		if (event == null || !config.getRules().isAnnounced(build, event)) {
+			return;
+		}
+		if (config.isCollapseChains() && !KarotzChains.get().offer(build, event)) {
+			return;
+		}
+		if (build instanceof MatrixBuild && event != KarotzEvent.START) {
+			// names the failing configurations, see KarotzEventHandler
+			build.addAction(KarotzMatrixSummary.of((MatrixBuild) build));
+		}
+		KarotzDispatcher.get().enqueue(KarotzNotification.of(build, event));
+	}
+
+	private static KarotzConfig getConfig() {
+		return Jenkins.getInstance()
+				.getDescriptorByType(KarotzPublisherDescriptor.class)
+				.getConfig();
+	}
+
+	/**
+	 * Whether a build is announced in global mode.
+	 */
+	private static boolean isGlobal(AbstractBuild<?, ?> build,
+			KarotzConfig config) {
+		return config.isGlobalMode()
+				&& config.isGlobalJob(build.getProject().getFullName());
+	}
+
+	private static boolean hasPublisher(AbstractBuild<?, ?> build) {
+		return build.getProject().getPublishersList()
+				.get(KarotzPublisher.class) != null;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+
+/**
+ * Keeps the open interactive session on disk, so that it survives a restart
+ * of Jenkins or a reload of the plugin.
+ * <p>
+ * At startup, a session which should still be open is adopted, so that the
+ * first notification does not have to start a new one, and a session which
+ * should have been stopped is stopped.
+ */
+public class KarotzSessionStore {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzSessionStore.class.getName());
+
+	private static final String FILE_NAME = "karotz-session.xml";
+
+	private final XmlFile file;
+
+	/**
+	 * Version of the state last written
+	 */
+	private long version;
+
+	public KarotzSessionStore(File file) {
+		this.file = new XmlFile(file);
+	}
+
+	/**
+	 * Loads the session.
+	 *
+	 * @return the session, or null if none was open
+	 */
+	public synchronized Session load() {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			return (Session) file.read();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the open session.
+	 *
+	 * @param session
+	 *            the session
+	 */
+	public synchronized void save(Session session) {
+		try {
+			file.write(session);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+		}
+	}
+
+	/**
+	 * Forgets the session, once stopped.
+	 */
+	public synchronized void clear() {
+		file.delete();
+	}
+
+	/**
+	 * Writes a state of the session, unless a newer one has already been
+	 * written: the states are taken in order, but may be written out of
+	 * order.
+	 *
+	 * @param session
+	 *            the open session, or null if none is open
+	 * @param version
+	 *            version of the state, increasing
+	 */
+	public synchronized void write(Session session, long version) {
+		if (version <= this.version) {
+			return;
+		}
+		this.version = version;
+		if (session != null) {
+			save(session);
+		} else {
+			clear();
+		}
+	}
+
+	/**
+	 * Restores the session left open before the restart.
+	 */
+	@Initializer(after = InitMilestone.JOB_LOADED)
+	public static void restore() {
+		KarotzClient.setSessionStore(new KarotzSessionStore(new File(Jenkins
+				.getInstance().getRootDir(), FILE_NAME)));
+		final KarotzConfig config = Jenkins.getInstance()
+				.getDescriptorByType(KarotzPublisherDescriptor.class)
+				.getConfig();
+		if (config == null) {
+			return;
+		}
+		// stopping an orphaned session may be slow, do not delay the startup
+		KarotzExecutors.notifications().execute(new Runnable() {
+			public void run() {
+				try {
+					config.getClient().restoreSession();
+				} catch (KarotzException e) {
+					LOGGER.log(Level.WARNING, "Failed to restore the session", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * An open interactive session.
+	 */
+	public static final class Session {
+
+		private final String installId;
+
+		private final String interactiveId;
+
+		private final long expiresAt;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param installId
+		 *            install ID of the application on the Karotz
+		 * @param interactiveId
+		 *            id of the session
+		 * @param expiresAt
+		 *            time after which the session should have been stopped
+		 */
+		public Session(String installId, String interactiveId, long expiresAt) {
+			this.installId = installId;
+			this.interactiveId = interactiveId;
+			this.expiresAt = expiresAt;
+		}
+
+		public String getInstallId() {
+			return installId;
+		}
+
+		public String getInteractiveId() {
+			return interactiveId;
+		}
+
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+	}
+}
@@ -26,6 +26,8 @@ package org.jenkinsci.plugins.karotz.action;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+
 /**
  * Led Light Action.
  * 
@@ -81,6 +83,37 @@ public class EarAction extends KarotzAction {
 		return params;
 	}
 
+	@Override
+	protected boolean isNoOp(KarotzDeviceShadow shadow) {
+		if (reset != null) {
+			return shadow.areEars(0, 0);
+		}
+		if (Boolean.TRUE.equals(relative)) {
+			return isZero(left) && isZero(right);
+		}
+		return shadow.areEars(left, right);
+	}
+
+	@Override
+	protected void update(KarotzDeviceShadow shadow) {
+		if (reset != null) {
+			shadow.setEars(0, 0);
+		} else if (Boolean.TRUE.equals(relative)) {
+			shadow.invalidateEars();
+		} else {
+			shadow.setEars(left, right);
+		}
+	}
+
+	private static boolean isZero(Integer position) {
+		return position == null || position == 0;
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.EARS;
+	}
+
 	@Override
 	public long getDuration() {
 		return EAR_RESET_TIME;
@@ -26,6 +26,7 @@ package org.jenkinsci.plugins.karotz.action;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +34,8 @@ import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 
 import org.jenkinsci.plugins.karotz.KarotzClient;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
 import org.jenkinsci.plugins.karotz.KarotzException;
 import org.jenkinsci.plugins.karotz.KarotzPublisher;
 import org.jenkinsci.plugins.karotz.KarotzUtil;
@@ -49,6 +52,12 @@ public abstract class KarotzAction {
 	private static final Logger LOGGER = Logger.getLogger(KarotzAction.class
 			.getName());
 
+	/**
+	 * How long before the estimated end of a sound the next one is sent, to
+	 * make up for the latency of the request
+	 */
+	private static final long PIPELINE_LEAD = 250;
+
 	public abstract String getBaseUrl();
 
 	public abstract Map<String, String> getParameters();
@@ -62,6 +71,84 @@ public abstract class KarotzAction {
 	 */
 	public abstract long getDuration();
 
+	/**
+	 * Gets the part of the Karotz driven by this action. Actions on different
+	 * channels may be sent concurrently.
+	 * 
+	 * @return the channel
+	 */
+	public KarotzChannel getChannel() {
+		return KarotzChannel.OTHER;
+	}
+
+	/**
+	 * Whether this action would not change what the Karotz shows, so that it
+	 * does not need to be sent.
+	 * 
+	 * @param shadow
+	 *            the shadow of the Karotz
+	 * @return true if the action can be skipped
+	 */
+	protected boolean isNoOp(KarotzDeviceShadow shadow) {
+		return false;
+	}
+
+	/**
+	 * Records the effect of this action, once acknowledged by the Karotz.
+	 * 
+	 * @param shadow
+	 *            the shadow of the Karotz
+	 */
+	protected void update(KarotzDeviceShadow shadow) {
+	}
+
+	/**
+	 * Records the effect of one request of this action, once acknowledged by
+	 * the Karotz. By default, the effect of the whole action.
+	 * 
+	 * @param shadow
+	 *            the shadow of the Karotz
+	 * @param params
+	 *            parameters of the request
+	 */
+	protected void update(KarotzDeviceShadow shadow, Map<String, String> params) {
+		update(shadow);
+	}
+
+	/**
+	 * Prepares this action for a notification, before its duration is
+	 * accounted for. By default, nothing to prepare.
+	 * 
+	 * @param context
+	 *            notification context
+	 */
+	public void prepare(KarotzContext context) {
+	}
+
+	/**
+	 * Executes this action for a notification.
+	 * 
+	 * @param context
+	 *            notification context
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void execute(KarotzContext context) throws KarotzException {
+		prepare(context);
+		execute(context.getClient());
+	}
+
+	/**
+	 * Executes this action outside of any notification, looking up the
+	 * configuration.
+	 * 
+	 * @param build
+	 *            the build
+	 * @param listener
+	 *            build listener
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
 	public void execute(AbstractBuild<?, ?> build, BuildListener listener)
 			throws KarotzException {
 		if (build == null || listener == null) {
@@ -77,24 +164,137 @@ public abstract class KarotzAction {
 			return;
 		}
 
-		Map<String, String> params = getParameters();
-		params.put("interactiveid", client.getInteractiveId());
-		String url = getBaseUrl() + '?' + KarotzUtil.buildQuery(params);
+		if (isSkipped(client)) {
+			return;
+		}
+
 		client.addActionDuration(getDuration());
+		send(client);
+
+	}
+
+	/**
+	 * Whether this action does not need to be sent, the Karotz already
+	 * showing its effect.
+	 * 
+	 * @param client
+	 *            the client
+	 * @return true if the action can be skipped
+	 */
+	public boolean isSkipped(KarotzClient client) {
+		KarotzDeviceShadow shadow = client.getShadow();
+		return shadow != null && isSkipped(shadow);
+	}
+
+	/**
+	 * Plans this action in a batch: whether it needs to be sent after the
+	 * actions planned before it, whose effects are recorded in the shadow.
+	 * 
+	 * @param planned
+	 *            a copy of the shadow of the Karotz, updated with the effect
+	 *            of this action if it is to be sent
+	 * @return true if the action can be skipped
+	 */
+	public boolean plan(KarotzDeviceShadow planned) {
+		if (isSkipped(planned)) {
+			return true;
+		}
+		update(planned);
+		return false;
+	}
+
+	private boolean isSkipped(KarotzDeviceShadow shadow) {
+		if (isNoOp(shadow)) {
+			LOGGER.log(Level.FINE, "Skipping {0}, the Karotz already shows {1}",
+					new Object[] { getClass().getSimpleName(), shadow });
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends this action in the current interactive session. The caller has
+	 * already accounted for its duration, see
+	 * {@link KarotzClient#executeBatch(List, KarotzContext)}.
+	 * 
+	 * @param client
+	 *            the client, in interactive mode
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	public void send(KarotzClient client) throws KarotzException {
+		send(client, getParameters());
+	}
+
+	/**
+	 * Sends a request of this action in the current interactive session.
+	 * 
+	 * @param client
+	 *            the client, in interactive mode
+	 * @param params
+	 *            parameters of the request
+	 * @throws KarotzException
+	 *             Network or karotz trouble.
+	 */
+	protected void send(KarotzClient client, Map<String, String> params)
+			throws KarotzException {
+		// read once, the session may be stopped at any time
+		String interactiveId = client.getInteractiveId();
+		if (interactiveId == null) {
+			throw new KarotzException("Not in interactive mode",
+					"NOT_CONNECTED");
+		}
+		KarotzDeviceShadow shadow = client.getShadow();
+		params.put("interactiveid", interactiveId);
+		String url = getBaseUrl() + '?' + KarotzUtil.buildQuery(params);
 		String result = client.doRequest(url);
 		String code = client.parseResponse(result, "code");
-		if (!"OK".equalsIgnoreCase(code)) {
-			throw new KarotzException("failed to do action: " + code);
+		boolean ok = "OK".equalsIgnoreCase(code);
+		if (shadow != null) {
+			if (ok) {
+				update(shadow, params);
+			} else {
+				shadow.invalidate();
+			}
+		}
+		if (!ok) {
+			throw new KarotzException("failed to do action: " + code, code);
 		}
 		LOGGER.log(Level.INFO, "Success.", result);
+	}
 
+	/**
+	 * Waits until the Karotz should be about to finish what it is saying or
+	 * playing, as recorded by its shadow, so that a sound does not cut off the
+	 * previous one.
+	 * 
+	 * @param client
+	 *            the client
+	 * @throws KarotzException
+	 *             if interrupted
+	 */
+	protected static void awaitSilence(KarotzClient client)
+			throws KarotzException {
+		KarotzDeviceShadow shadow = client.getShadow();
+		if (shadow == null) {
+			return;
+		}
+		long millis = shadow.getSpeakingUntil() - PIPELINE_LEAD
+				- System.currentTimeMillis();
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new KarotzException(e);
+		}
 	}
 
 	protected KarotzClient getClient() {
 		KarotzPublisher.KarotzPublisherDescriptor d = Jenkins.getInstance()
 				.getDescriptorByType(
 						KarotzPublisher.KarotzPublisherDescriptor.class);
-		return new KarotzClient(d.getApiKey(), d.getSecretKey(),
-				d.getInstallId());
+		return d.getConfig().getClient();
 	}
 }
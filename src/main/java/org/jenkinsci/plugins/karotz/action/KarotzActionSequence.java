@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.karotz.KarotzBatchResult;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.KarotzExecutors;
+
+/**
+ * Sequence of actions sent by an event handler.
+ * <p>
+ * Actions are sent in order. In concurrent mode, only the actions of a same
+ * channel are sent in order, and the channels are driven concurrently, so
+ * that the sequence takes as long as its longest channel.
+ * <p>
+ * While the Karotz is behind, the sequence is cut down before being sent, see
+ * {@link KarotzDegradation}.
+ */
+public class KarotzActionSequence {
+
+	private final List<KarotzAction> actions = new ArrayList<KarotzAction>();
+
+	/**
+	 * Adds an action at the end of the sequence.
+	 *
+	 * @param action
+	 *            the action
+	 * @return this sequence
+	 */
+	public KarotzActionSequence add(KarotzAction action) {
+		actions.add(action);
+		return this;
+	}
+
+	public List<KarotzAction> getActions() {
+		return Collections.unmodifiableList(actions);
+	}
+
+	/**
+	 * Groups the actions by channel, keeping their order.
+	 *
+	 * @return the actions of each channel
+	 */
+	public Map<KarotzChannel, List<KarotzAction>> getChannels() {
+		return getChannels(actions);
+	}
+
+	/**
+	 * Cuts the sequence down.
+	 *
+	 * @param level
+	 *            how much the sequence is cut down
+	 * @param context
+	 *            notification context
+	 * @return the actions to send
+	 */
+	public List<KarotzAction> degrade(KarotzDegradation level,
+			KarotzContext context) {
+		if (level == null || !level.includes(KarotzDegradation.SHORT_SPEECH)) {
+			return actions;
+		}
+		List<KarotzAction> degraded = new ArrayList<KarotzAction>();
+		int led = -1;
+		for (KarotzAction action : actions) {
+			if (action.getChannel() == KarotzChannel.LED
+					&& level.includes(KarotzDegradation.NO_BLINK)) {
+				// only the final color is shown, where the LED first changed
+				if (led < 0) {
+					led = degraded.size();
+					degraded.add(action);
+				} else {
+					degraded.set(led, action);
+				}
+			} else if (action.getChannel() == KarotzChannel.LED) {
+				degraded.add(action);
+			} else if (level.includes(KarotzDegradation.LED_ONLY)) {
+				continue;
+			} else if (action instanceof SpeakAction) {
+				degraded.add(((SpeakAction) action).shorten(context));
+			} else {
+				degraded.add(action);
+			}
+		}
+		return degraded;
+	}
+
+	private static Map<KarotzChannel, List<KarotzAction>> getChannels(
+			List<KarotzAction> actions) {
+		Map<KarotzChannel, List<KarotzAction>> channels = new LinkedHashMap<KarotzChannel, List<KarotzAction>>();
+		for (KarotzAction action : actions) {
+			List<KarotzAction> channel = channels.get(action.getChannel());
+			if (channel == null) {
+				channel = new ArrayList<KarotzAction>();
+				channels.put(action.getChannel(), channel);
+			}
+			channel.add(action);
+		}
+		return channels;
+	}
+
+	public void execute(final KarotzContext context) throws KarotzException {
+		List<KarotzAction> actions = degrade(context.getDegradation(), context);
+		Map<KarotzChannel, List<KarotzAction>> channels = getChannels(actions);
+		if (!isConcurrent(context) || channels.size() < 2) {
+			executeAll(actions, context, -1);
+			return;
+		}
+
+		// the channels run alongside: the session lasts as long as the longest
+		final long start = context.getClient().getActionsStart();
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		List<KarotzAction> first = null;
+		for (final List<KarotzAction> channel : channels.values()) {
+			if (first == null) {
+				// the calling thread drives the first channel itself
+				first = channel;
+				continue;
+			}
+			futures.add(KarotzExecutors.channels().submit(
+					new Callable<Void>() {
+						public Void call() throws KarotzException {
+							executeAll(channel, context, start);
+							return null;
+						}
+					}));
+		}
+
+		KarotzException failure = null;
+		try {
+			executeAll(first, context, start);
+		} catch (KarotzException e) {
+			failure = e;
+		}
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				cancelAll(futures);
+				throw new KarotzException(e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof KarotzException ? (KarotzException) e
+							.getCause() : new KarotzException(e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Whether the channels should be driven concurrently.
+	 *
+	 * @param context
+	 *            notification context
+	 * @return true in concurrent mode
+	 */
+	protected boolean isConcurrent(KarotzContext context) {
+		return context.getConfig().isConcurrentChannels();
+	}
+
+	private static void executeAll(List<KarotzAction> actions,
+			KarotzContext context, long start) throws KarotzException {
+		KarotzBatchResult result = context.getClient().executeBatch(actions,
+				context, start);
+		if (!result.isSuccessful()) {
+			throw result.getFailure();
+		}
+		if (result.count(KarotzBatchResult.Status.NOT_SENT) > 0) {
+			throw new KarotzException("The notification has been cancelled");
+		}
+	}
+
+	private static void cancelAll(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+}
@@ -26,6 +26,8 @@ package org.jenkinsci.plugins.karotz.action;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+
 /**
  * Led Light Action.
  * 
@@ -60,6 +62,17 @@ public class LedFadeAction extends KarotzAction {
 		return params;
 	}
 
+	@Override
+	protected void update(KarotzDeviceShadow shadow) {
+		// the LED ends up lit with the color once faded
+		shadow.setLed(KarotzDeviceShadow.LED_FADE, color);
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.LED;
+	}
+
 	@Override
 	public long getDuration() {
 		return period;
@@ -26,6 +26,8 @@ package org.jenkinsci.plugins.karotz.action;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+
 /**
  * Led Light Action.
  * 
@@ -58,6 +60,26 @@ public class LedLightAction extends KarotzAction {
 		return params;
 	}
 
+	@Override
+	protected boolean isNoOp(KarotzDeviceShadow shadow) {
+		return shadow.isLed(getMode(), color);
+	}
+
+	@Override
+	protected void update(KarotzDeviceShadow shadow) {
+		shadow.setLed(getMode(), color);
+	}
+
+	private String getMode() {
+		return color != null ? KarotzDeviceShadow.LED_LIGHT
+				: KarotzDeviceShadow.LED_OFF;
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.LED;
+	}
+
 	@Override
 	public long getDuration() {
 		return 0;
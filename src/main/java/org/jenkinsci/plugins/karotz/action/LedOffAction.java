@@ -26,6 +26,8 @@ package org.jenkinsci.plugins.karotz.action;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+
 /**
  * Led Light Action.
  * 
@@ -45,6 +47,21 @@ public class LedOffAction extends KarotzAction {
 		return params;
 	}
 
+	@Override
+	protected boolean isNoOp(KarotzDeviceShadow shadow) {
+		return shadow.isLed(KarotzDeviceShadow.LED_OFF, null);
+	}
+
+	@Override
+	protected void update(KarotzDeviceShadow shadow) {
+		shadow.setLed(KarotzDeviceShadow.LED_OFF, null);
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.LED;
+	}
+
 	@Override
 	public long getDuration() {
 		// TODO Auto-generated method stub
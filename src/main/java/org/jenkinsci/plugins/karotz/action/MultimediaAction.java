@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.action;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.karotz.KarotzClient;
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+import org.jenkinsci.plugins.karotz.KarotzException;
+
+/**
+ * Multimedia Action, playing a sound clip.
+ */
+public class MultimediaAction extends KarotzAction {
+
+	private final String url;
+
+	private final long duration;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param url
+	 *            URL of the clip, reachable by the Karotz
+	 * @param duration
+	 *            approximate duration of the clip in milliseconds
+	 */
+	public MultimediaAction(String url, long duration) {
+		this.url = url;
+		this.duration = duration;
+	}
+
+	@Override
+	public String getBaseUrl() {
+		return "http://api.karotz.com/api/karotz/multimedia";
+	}
+
+	@Override
+	public Map<String, String> getParameters() {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("action", "play");
+		params.put("url", url);
+		return params;
+	}
+
+	/**
+	 * Plays the clip once the Karotz is done with the previous sound.
+	 */
+	@Override
+	public void send(KarotzClient client) throws KarotzException {
+		awaitSilence(client);
+		super.send(client);
+	}
+
+	@Override
+	protected void update(KarotzDeviceShadow shadow) {
+		shadow.speak(getDuration());
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.SOUND;
+	}
+
+	@Override
+	public long getDuration() {
+		return duration;
+	}
+}
@@ -24,14 +24,23 @@
 package org.jenkinsci.plugins.karotz.action;
 
 import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
+import org.jenkinsci.plugins.karotz.KarotzClient;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
 import org.jenkinsci.plugins.karotz.KarotzException;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
@@ -50,11 +59,18 @@ public class SpeakAction extends KarotzAction {
 	 */
 	private static final int LETTER_DURATION = 120;
 
+	/**
+	 * Maximum length of the text of one request
+	 */
+	static final int MAX_CHUNK_LENGTH = 200;
+
+	private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?;])\\s+");
+
 	private String textToSpeak;
 
 	private final String language;
 
-	private final int duration;
+	private int duration;
 
 	public SpeakAction(String textToSpeak) {
 		this(textToSpeak, "EN");
@@ -63,7 +79,7 @@ public class SpeakAction extends KarotzAction {
 	public SpeakAction(String textToSpeak, String language) {
 		this.textToSpeak = textToSpeak;
 		this.language = language;
-		this.duration = textToSpeak.length() * LETTER_DURATION;
+		this.duration = durationOf(textToSpeak);
 	}
 
 	@Override
@@ -80,11 +96,138 @@ public class SpeakAction extends KarotzAction {
 		return params;
 	}
 
+	/**
+	 * Gets a compact form of this speech, only naming the job and its status,
+	 * used while the Karotz is behind. The status is taken from the event
+	 * announced, or else from the result of the build: a start announced
+	 * after the build is over still says "started".
+	 *
+	 * @param context
+	 *            notification context
+	 * @return the compact speech, or this speech if its status is not known
+	 */
+	public SpeakAction shorten(KarotzContext context) {
+		AbstractBuild<?, ?> build = context.getBuild();
+		String status = statusOf(context.getEvent(), build.getResult());
+		if (status == null) {
+			return this;
+		}
+		return new SpeakAction(build.getProject().getDisplayName() + " "
+				+ status, language);
+	}
+
+	/**
+	 * Gets the status said by a compact speech.
+	 *
+	 * @param event
+	 *            event announced, null if not known
+	 * @param result
+	 *            result of the build, null if it is still running
+	 * @return the status, or null if not known
+	 */
+	static String statusOf(KarotzEvent event, Result result) {
+		if (event == KarotzEvent.START) {
+			return "started";
+		} else if (event == KarotzEvent.RECOVER) {
+			return "recovered";
+		} else if (event == KarotzEvent.FLAPPING) {
+			return "is flapping";
+		} else if (event == KarotzEvent.SUCCESS) {
+			return "passed";
+		} else if (event == KarotzEvent.UNSTABLE) {
+			return "unstable";
+		} else if (event == KarotzEvent.FAILURE) {
+			return "failed";
+		}
+		if (result == Result.SUCCESS) {
+			return "passed";
+		} else if (result == Result.UNSTABLE) {
+			return "unstable";
+		} else if (result == Result.FAILURE) {
+			return "failed";
+		} else if (result == Result.ABORTED) {
+			return "aborted";
+		}
+		// still running, or not built: the full text says more
+		return null;
+	}
+
+	/**
+	 * Sends the text one sentence at a time: the first sentence as soon as
+	 * the Karotz is done with the previous sound, so that it starts speaking
+	 * sooner, and each of the next ones when the previous one should be about
+	 * to end.
+	 * <p>
+	 * The calling thread sleeps between the sentences, until the last one has
+	 * been sent. This is intended: the Karotz says one text at a time, so the
+	 * next notification could not be heard any sooner, and the interactive
+	 * session is kept open meanwhile.
+	 */
+	@Override
+	public void send(KarotzClient client) throws KarotzException {
+		for (String chunk : split(textToSpeak, MAX_CHUNK_LENGTH)) {
+			awaitSilence(client);
+			Map<String, String> params = getParameters();
+			params.put("text", chunk);
+			send(client, params);
+		}
+	}
+
+	/**
+	 * Splits a text in sentences, cutting the sentences too long between
+	 * words.
+	 *
+	 * @param text
+	 *            the text
+	 * @param maxLength
+	 *            maximum length of a chunk
+	 * @return the chunks
+	 */
+	static List<String> split(String text, int maxLength) {
+		List<String> chunks = new ArrayList<String>();
+		for (String sentence : SENTENCE_END.split(text.trim())) {
+			while (sentence.length() > maxLength) {
+				int cut = sentence.lastIndexOf(' ', maxLength);
+				if (cut <= 0) {
+					cut = maxLength;
+				}
+				chunks.add(sentence.substring(0, cut).trim());
+				sentence = sentence.substring(cut).trim();
+			}
+			if (sentence.length() > 0) {
+				chunks.add(sentence);
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Gets this speech followed by another text.
+	 *
+	 * @param text
+	 *            the text to add
+	 * @return the longer speech, in the same language
+	 */
+	public SpeakAction append(String text) {
+		return new SpeakAction(textToSpeak + " " + text, language);
+	}
+
+	@Override
+	public void prepare(KarotzContext context) {
+		expand(context.getBuild(), context.getListener());
+	}
+
 	@Override
 	public void execute(AbstractBuild<?, ?> build, BuildListener listener)
 			throws KarotzException {
+		expand(build, listener);
+		super.execute(build, listener);
+	}
+
+	private void expand(AbstractBuild<?, ?> build, TaskListener listener) {
 		try {
 			textToSpeak = TokenMacro.expandAll(build, listener, textToSpeak);
+			duration = durationOf(textToSpeak);
 		} catch (MacroEvaluationException ex) {
 			LOGGER.log(Level.WARNING, "Build variables seem to be invalid", ex);
 		} catch (IOException ex) {
@@ -92,7 +235,6 @@ public class SpeakAction extends KarotzAction {
 		} catch (InterruptedException ex) {
 			LOGGER.log(Level.WARNING, "Interrupted", ex);
 		}
-		super.execute(build, listener);
 	}
 
 	/**
@@ -101,6 +243,24 @@ public class SpeakAction extends KarotzAction {
 	protected static final Logger LOGGER = Logger.getLogger(SpeakAction.class
 			.getName());
 
+	/**
+	 * Records that the Karotz says one chunk, for as long as this chunk
+	 * takes rather than the whole text.
+	 */
+	@Override
+	protected void update(KarotzDeviceShadow shadow, Map<String, String> params) {
+		shadow.speak(durationOf(params.get("text")));
+	}
+
+	private static int durationOf(String text) {
+		return text.length() * LETTER_DURATION;
+	}
+
+	@Override
+	public KarotzChannel getChannel() {
+		return KarotzChannel.SOUND;
+	}
+
 	@Override
 	public long getDuration() {
 		return duration;
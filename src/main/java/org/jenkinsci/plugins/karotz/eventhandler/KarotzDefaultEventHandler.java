@@ -24,9 +24,10 @@
 package org.jenkinsci.plugins.karotz.eventhandler;
 
 import hudson.Extension;
-import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
 import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.action.KarotzActionSequence;
 import org.jenkinsci.plugins.karotz.action.LedColor;
 import org.jenkinsci.plugins.karotz.action.LedFadeAction;
 import org.jenkinsci.plugins.karotz.action.LedLightAction;
@@ -48,72 +49,77 @@ public class KarotzDefaultEventHandler extends KarotzEventHandler {
     /**
      * Triggered on build start.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onStart(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
-        new LedFadeAction(LedColor.GREEN, 3000).execute(build, listener);
+    public void onStart(KarotzContext context) throws KarotzException {
         String tts = "The build ${BUILD_NUMBER} of project ${JOB_NAME} has started";
-        new SpeakAction(tts).execute(build, listener);
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedFadeAction(LedColor.GREEN, 3000));
+        announce(sequence, context, KarotzEvent.START, new SpeakAction(tts));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build failure.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onFailure(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onFailure(KarotzContext context) throws KarotzException {
         String tts = "Failure of build ${BUILD_NUMBER} in project ${JOB_NAME}";
+        KarotzActionSequence sequence = new KarotzActionSequence();
         for (int i = 5; i > 0; i--) {
-            new LedOffAction().execute(build, listener);
-            new LedLightAction(LedColor.RED).execute(build, listener);
+            sequence.add(new LedOffAction());
+            sequence.add(new LedLightAction(LedColor.RED));
         }
-        new SpeakAction(tts).execute(build, listener);
+        announce(sequence, context, KarotzEvent.FAILURE, new SpeakAction(tts));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build unstable.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onUnstable(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onUnstable(KarotzContext context) throws KarotzException {
         String tts = "Project ${JOB_NAME} is unstable at build ${BUILD_NUMBER}";
-        new LedLightAction(LedColor.YELLOW).execute(build, listener);
-        new SpeakAction(tts).execute(build, listener);
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedLightAction(LedColor.YELLOW));
+        announce(sequence, context, KarotzEvent.UNSTABLE, new SpeakAction(tts));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build recover.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onRecover(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onRecover(KarotzContext context) throws KarotzException {
         String tts = "Project ${JOB_NAME} recovered at build ${BUILD_NUMBER}";
-        new LedLightAction(LedColor.BLUE).execute(build, listener);
-        new SpeakAction(tts).execute(build, listener);
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedLightAction(LedColor.BLUE));
+        announce(sequence, context, KarotzEvent.RECOVER, new SpeakAction(tts));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build success.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onSuccess(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onSuccess(KarotzContext context) throws KarotzException {
         String tts = "Success of build ${BUILD_NUMBER} in project ${JOB_NAME}";
+        KarotzActionSequence sequence = new KarotzActionSequence();
         for (int i = 5; i > 0; i--) {
-            new LedOffAction().execute(build, listener);
-            new LedLightAction(LedColor.BLUE).execute(build, listener);
+            sequence.add(new LedOffAction());
+            sequence.add(new LedLightAction(LedColor.BLUE));
         }
-        new SpeakAction(tts).execute(build, listener);
+        announce(sequence, context, KarotzEvent.SUCCESS, new SpeakAction(tts));
+        sequence.execute(context);
     }
 
     @Extension
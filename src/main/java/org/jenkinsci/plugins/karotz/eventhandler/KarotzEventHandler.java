@@ -28,7 +28,20 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import java.nio.charset.Charset;
+import org.jenkinsci.plugins.karotz.KarotzConfig;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzEarconMode;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
 import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.KarotzMatrixSummary;
+import org.jenkinsci.plugins.karotz.action.KarotzActionSequence;
+import org.jenkinsci.plugins.karotz.action.LedColor;
+import org.jenkinsci.plugins.karotz.action.LedFadeAction;
+import org.jenkinsci.plugins.karotz.action.MultimediaAction;
+import org.jenkinsci.plugins.karotz.action.SpeakAction;
 
 /**
  * karotz Event Handler.
@@ -38,45 +51,189 @@ import org.jenkinsci.plugins.karotz.KarotzException;
 public abstract class KarotzEventHandler extends AbstractDescribableImpl<KarotzEventHandler>
         implements ExtensionPoint {
 
+    protected static final String FLAPPING_TEXT = "Project ${JOB_NAME} is flapping,"
+            + " it will be announced again once stable";
+
+    /**
+     * Triggered on build start. Forwards to {@link #onStart(AbstractBuild, BuildListener)}
+     * unless overridden.
+     *
+     * @param context notification context of the build in progress
+     */
+    public void onStart(KarotzContext context) throws KarotzException {
+        onStart(context.getBuild(), getBuildListener(context));
+    }
+
+    /**
+     * Triggered on build failure. Forwards to {@link #onFailure(AbstractBuild, BuildListener)}
+     * unless overridden.
+     *
+     * @param context notification context of the build in progress
+     */
+    public void onFailure(KarotzContext context) throws KarotzException {
+        onFailure(context.getBuild(), getBuildListener(context));
+    }
+
+    /**
+     * Triggered on build recover. Forwards to {@link #onRecover(AbstractBuild, BuildListener)}
+     * unless overridden.
+     *
+     * @param context notification context of the build in progress
+     */
+    public void onRecover(KarotzContext context) throws KarotzException {
+        onRecover(context.getBuild(), getBuildListener(context));
+    }
+
+    /**
+     * Triggered on build success. Forwards to {@link #onSuccess(AbstractBuild, BuildListener)}
+     * unless overridden.
+     *
+     * @param context notification context of the build in progress
+     */
+    public void onSuccess(KarotzContext context) throws KarotzException {
+        onSuccess(context.getBuild(), getBuildListener(context));
+    }
+
+    /**
+     * Triggered on build unstable. Forwards to {@link #onUnstable(AbstractBuild, BuildListener)}
+     * unless overridden.
+     *
+     * @param context notification context of the build in progress
+     */
+    public void onUnstable(KarotzContext context) throws KarotzException {
+        onUnstable(context.getBuild(), getBuildListener(context));
+    }
+
     /**
      * Triggered on build start.
      *
      * @param build The build in progress
      * @param listener build listener
+     * @deprecated override {@link #onStart(KarotzContext)} instead
      */
-    public abstract void onStart(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException;
+    @Deprecated
+    public void onStart(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+        throw new AbstractMethodError(getClass().getName() + " must override onStart");
+    }
 
     /**
      * Triggered on build failure.
      *
      * @param build The build in progress
      * @param listener build listener
+     * @deprecated override {@link #onFailure(KarotzContext)} instead
      */
-    public abstract void onFailure(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException;
+    @Deprecated
+    public void onFailure(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+        throw new AbstractMethodError(getClass().getName() + " must override onFailure");
+    }
 
     /**
      * Triggered on build recover.
      *
      * @param build The build in progress
      * @param listener build listener
+     * @deprecated override {@link #onRecover(KarotzContext)} instead
      */
-    public abstract void onRecover(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException;
+    @Deprecated
+    public void onRecover(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+        throw new AbstractMethodError(getClass().getName() + " must override onRecover");
+    }
 
     /**
      * Triggered on build success.
      *
      * @param build The build in progress
      * @param listener build listener
+     * @deprecated override {@link #onSuccess(KarotzContext)} instead
      */
-    public abstract void onSuccess(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException;
+    @Deprecated
+    public void onSuccess(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+        throw new AbstractMethodError(getClass().getName() + " must override onSuccess");
+    }
 
     /**
      * Triggered on build unstable.
      *
      * @param build The build in progress
      * @param listener build listener
+     * @deprecated override {@link #onUnstable(KarotzContext)} instead
+     */
+    @Deprecated
+    public void onUnstable(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+        throw new AbstractMethodError(getClass().getName() + " must override onUnstable");
+    }
+
+    /**
+     * Triggered when a job starts flapping between failure and success. Its
+     * results are not announced until it is stable again.
+     *
+     * @param context notification context of the build in progress
      */
-    public abstract void onUnstable(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException;
+    public void onFlapping(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedFadeAction(LedColor.YELLOW, 3000));
+        announce(sequence, context, KarotzEvent.FLAPPING, getFlappingSpeech());
+        sequence.execute(context);
+    }
+
+    /**
+     * Gets the speech announcing a flapping job.
+     *
+     * @return the speech
+     */
+    protected SpeakAction getFlappingSpeech() {
+        return new SpeakAction(FLAPPING_TEXT);
+    }
+
+    /**
+     * Adds the announcement of an event to a sequence: its earcon, its speech
+     * or both, depending on the configuration.
+     *
+     * @param sequence the sequence
+     * @param context notification context
+     * @param event the event to announce
+     * @param speech the speech announcing the event
+     */
+    protected void announce(KarotzActionSequence sequence, KarotzContext context, KarotzEvent event,
+            SpeakAction speech) {
+        if (event == KarotzEvent.FAILURE || event == KarotzEvent.UNSTABLE) {
+            speech = withMatrixSummary(context, speech);
+        }
+        KarotzConfig config = context.getConfig();
+        String earcon = config.getEarconUrl(event);
+        if (earcon == null || config.getEarconMode() == KarotzEarconMode.NONE) {
+            sequence.add(speech);
+            return;
+        }
+        sequence.add(new MultimediaAction(earcon, config.getEarconDuration()));
+        if (config.getEarconMode() == KarotzEarconMode.BEFORE_SPEECH) {
+            sequence.add(speech);
+        }
+    }
+
+    /**
+     * Names the failing configurations after the speech of a matrix build.
+     */
+    private static SpeakAction withMatrixSummary(KarotzContext context, SpeakAction speech) {
+        KarotzMatrixSummary summary = context.getBuild().getAction(KarotzMatrixSummary.class);
+        if (summary == null || summary.getSpeech() == null) {
+            return speech;
+        }
+        return speech.append(summary.getSpeech());
+    }
+
+    /**
+     * Gets the listener of a context as the build listener expected by the
+     * legacy callbacks.
+     */
+    private static BuildListener getBuildListener(KarotzContext context) {
+        TaskListener listener = context.getListener();
+        if (listener == null || listener instanceof BuildListener) {
+            return (BuildListener) listener;
+        }
+        return new StreamBuildListener(listener.getLogger(), Charset.defaultCharset());
+    }
 
     @Override
     public Descriptor<KarotzEventHandler> getDescriptor() {
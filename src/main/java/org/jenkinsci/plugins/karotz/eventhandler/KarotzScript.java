@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.eventhandler;
+
+import groovy.lang.Script;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.Run;
+
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.jenkinsci.plugins.karotz.action.EarAction;
+import org.jenkinsci.plugins.karotz.action.KarotzAction;
+import org.jenkinsci.plugins.karotz.action.KarotzActionSequence;
+import org.jenkinsci.plugins.karotz.action.LedColor;
+import org.jenkinsci.plugins.karotz.action.LedFadeAction;
+import org.jenkinsci.plugins.karotz.action.LedLightAction;
+import org.jenkinsci.plugins.karotz.action.LedOffAction;
+import org.jenkinsci.plugins.karotz.action.MultimediaAction;
+import org.jenkinsci.plugins.karotz.action.SpeakAction;
+
+/**
+ * Base class of the scripts of {@link KarotzScriptEventHandler}, giving them
+ * the actions they may add to the sequence of the event and a few read-only
+ * properties of the build:
+ *
+ * <pre>
+ * if (event == 'FAILURE') {
+ *     blink 'RED', 5
+ *     announce 'Failure of ${JOB_NAME}'
+ * } else {
+ *     light 'GREEN'
+ * }
+ * </pre>
+ *
+ * The script only builds the sequence, which is sent once the script is over.
+ */
+public abstract class KarotzScript extends Script {
+
+	/**
+	 * Maximum number of actions of a sequence
+	 */
+	static final int MAX_ACTIONS = 100;
+
+	private static final Pattern COLOR_CODE = Pattern.compile("[0-9A-Fa-f]{6}");
+
+	private KarotzScriptEventHandler handler;
+
+	private KarotzContext context;
+
+	private KarotzEvent event;
+
+	private KarotzActionSequence sequence;
+
+	/**
+	 * Prepares the script for an event.
+	 *
+	 * @param handler the handler running the script
+	 * @param context notification context
+	 * @param event the event
+	 * @param sequence the sequence built by the script
+	 */
+	void init(KarotzScriptEventHandler handler, KarotzContext context, KarotzEvent event,
+			KarotzActionSequence sequence) {
+		this.handler = handler;
+		this.context = context;
+		this.event = event;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Gets the event, e.g. <code>FAILURE</code>.
+	 *
+	 * @return name of the event
+	 */
+	public String getEvent() {
+		return event.name();
+	}
+
+	public String getJobName() {
+		return context.getBuild().getProject().getFullName();
+	}
+
+	public int getBuildNumber() {
+		return context.getBuild().getNumber();
+	}
+
+	/**
+	 * Gets the result of the build.
+	 *
+	 * @return the result, null if the build is in progress
+	 */
+	public String getResult() {
+		return toString(context.getBuild().getResult());
+	}
+
+	/**
+	 * Gets the result of the previous build.
+	 *
+	 * @return the result, null for the first build
+	 */
+	public String getPreviousResult() {
+		AbstractBuild<?, ?> build = context.getBuild();
+		Run<?, ?> previous = build.getPreviousBuild();
+		return previous != null ? toString(previous.getResult()) : null;
+	}
+
+	/**
+	 * Lights the led.
+	 *
+	 * @param color name of a color, e.g. <code>RED</code>, or RGB code
+	 */
+	public void light(String color) {
+		add(new LedLightAction(toCode(color)));
+	}
+
+	/**
+	 * Fades the led to a color.
+	 *
+	 * @param color name of a color, or RGB code
+	 * @param period duration of the fade in milliseconds
+	 */
+	public void fade(String color, long period) {
+		add(new LedFadeAction(toCode(color), period));
+	}
+
+	/**
+	 * Blinks the led.
+	 *
+	 * @param color name of a color, or RGB code
+	 * @param times number of blinks
+	 */
+	public void blink(String color, int times) {
+		String code = toCode(color);
+		for (int i = 0; i < times; i++) {
+			add(new LedOffAction());
+			add(new LedLightAction(code));
+		}
+	}
+
+	public void off() {
+		add(new LedOffAction());
+	}
+
+	/**
+	 * Speaks a text, which may use the build variables.
+	 *
+	 * @param text the text
+	 */
+	public void speak(String text) {
+		add(new SpeakAction(text));
+	}
+
+	/**
+	 * Speaks a text in a language.
+	 *
+	 * @param text the text
+	 * @param lang the language, e.g. <code>FR</code>
+	 */
+	public void speak(String text, String lang) {
+		add(new SpeakAction(text, lang));
+	}
+
+	/**
+	 * Announces the event with the configured earcon, the text or both.
+	 *
+	 * @param text the text
+	 */
+	public void announce(String text) {
+		KarotzActionSequence announcement = new KarotzActionSequence();
+		handler.announce(announcement, context, event, new SpeakAction(text));
+		for (KarotzAction action : announcement.getActions()) {
+			add(action);
+		}
+	}
+
+	/**
+	 * Plays a sound.
+	 *
+	 * @param url URL of the sound
+	 * @param duration duration of the sound in milliseconds
+	 */
+	public void play(String url, long duration) {
+		add(new MultimediaAction(url, duration));
+	}
+
+	/**
+	 * Moves the ears to a position.
+	 *
+	 * @param left position of the left ear
+	 * @param right position of the right ear
+	 */
+	public void ears(int left, int right) {
+		add(new EarAction(left, right, false));
+	}
+
+	public void resetEars() {
+		add(new EarAction());
+	}
+
+	private void add(KarotzAction action) {
+		if (sequence.getActions().size() >= MAX_ACTIONS) {
+			throw new IllegalStateException("A script may not add more than " + MAX_ACTIONS
+					+ " actions");
+		}
+		sequence.add(action);
+	}
+
+	private static String toCode(String color) {
+		try {
+			return LedColor.valueOf(color).getCode();
+		} catch (IllegalArgumentException e) {
+			if (COLOR_CODE.matcher(color).matches()) {
+				return color;
+			}
+			throw new IllegalArgumentException("Unknown color: " + color);
+		}
+	}
+
+	private static String toString(Result result) {
+		return result != null ? result.toString() : null;
+	}
+}
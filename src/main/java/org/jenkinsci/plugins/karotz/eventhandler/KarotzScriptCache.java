@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.eventhandler;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.transform.ThreadInterrupt;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ConstructorCallExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.SecureASTCustomizer;
+import org.jenkinsci.plugins.karotz.KarotzException;
+
+/**
+ * Compiled scripts of {@link KarotzScriptEventHandler}, keyed by the SHA-1 of
+ * their text, so that a script is only compiled again when it changes.
+ * <p>
+ * The scripts are compiled with restrictions: no imports, no class or method
+ * definitions, no constructors, no reflection and only a few classes may be
+ * named, so that a script sticks to the methods of {@link KarotzScript} and
+ * to plain Groovy expressions. These restrictions guard against mistakes,
+ * they are not a sandbox: a script can get around them, and runs with the
+ * full trust of Jenkins. Their loops check the interrupted flag of their
+ * thread, so that a script running for too long can be stopped.
+ */
+final class KarotzScriptCache {
+
+	/**
+	 * Maximum number of compiled scripts kept
+	 */
+	private static final int MAX_SCRIPTS = 32;
+
+	/**
+	 * Classes a script may name, including the ones used by the interrupt
+	 * checks added to its loops
+	 */
+	private static final Set<String> CLASSES = new HashSet<String>(Arrays.asList(
+			"java.lang.Object", "java.lang.String", "java.lang.Integer", "java.lang.Long",
+			"java.lang.Math", "java.lang.Thread", "java.lang.InterruptedException"));
+
+	/**
+	 * Methods and properties giving access to the classes, the class loaders
+	 * or the threads
+	 */
+	private static final Set<String> FORBIDDEN_NAMES = new HashSet<String>(Arrays.asList(
+			"class", "getClass", "metaClass", "getMetaClass", "setMetaClass", "classLoader",
+			"getClassLoader", "forName", "invokeMethod", "getProperty", "setProperty",
+			"evaluate", "execute", "newInstance", "setAccessible", "getRuntime", "exit", "halt",
+			"stop", "suspend", "resume", "sleep", "binding", "getBinding", "setBinding", "run",
+			"with", "identity", "use", "mixin"));
+
+	private static final Map<String, Class<? extends KarotzScript>> SCRIPTS =
+			new LinkedHashMap<String, Class<? extends KarotzScript>>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Class<? extends KarotzScript>> eldest) {
+					return size() > MAX_SCRIPTS;
+				}
+			};
+
+	private KarotzScriptCache() {
+		// do not use
+	}
+
+	/**
+	 * Creates an instance of a script, compiling it if needed.
+	 *
+	 * @param text the script
+	 * @return a new instance of the script
+	 * @throws KarotzException if the script cannot be compiled
+	 */
+	static KarotzScript newScript(String text) throws KarotzException {
+		try {
+			return compile(text).newInstance();
+		} catch (InstantiationException e) {
+			throw new KarotzException(e);
+		} catch (IllegalAccessException e) {
+			throw new KarotzException(e);
+		}
+	}
+
+	/**
+	 * Gets the compiled script, compiling it if needed.
+	 *
+	 * @param text the script
+	 * @return the class of the script
+	 * @throws KarotzException if the script cannot be compiled
+	 */
+	static Class<? extends KarotzScript> compile(String text) throws KarotzException {
+		String hash = sha1(text);
+		synchronized (SCRIPTS) {
+			Class<? extends KarotzScript> script = SCRIPTS.get(hash);
+			if (script != null) {
+				return script;
+			}
+		}
+		// compiled outside of the lock, a script compiled twice is harmless
+		Class<? extends KarotzScript> script;
+		try {
+			GroovyClassLoader loader = new GroovyClassLoader(
+					KarotzScript.class.getClassLoader(), createConfiguration());
+			script = loader.parseClass(text, "KarotzScript_" + hash + ".groovy")
+					.asSubclass(KarotzScript.class);
+		} catch (CompilationFailedException e) {
+			throw new KarotzException(e.getMessage());
+		}
+		synchronized (SCRIPTS) {
+			SCRIPTS.put(hash, script);
+		}
+		return script;
+	}
+
+	static void clear() {
+		synchronized (SCRIPTS) {
+			SCRIPTS.clear();
+		}
+	}
+
+	static int size() {
+		synchronized (SCRIPTS) {
+			return SCRIPTS.size();
+		}
+	}
+
+	private static CompilerConfiguration createConfiguration() {
+		SecureASTCustomizer sandbox = new SecureASTCustomizer();
+		sandbox.setPackageAllowed(false);
+		sandbox.setMethodDefinitionAllowed(false);
+		sandbox.setImportsWhitelist(Collections.<String>emptyList());
+		sandbox.setStarImportsWhitelist(Collections.<String>emptyList());
+		sandbox.setStaticImportsWhitelist(Collections.<String>emptyList());
+		sandbox.setStaticStarImportsWhitelist(Collections.<String>emptyList());
+		sandbox.addExpressionCheckers(new SecureASTCustomizer.ExpressionChecker() {
+			public boolean isAuthorized(Expression expression) {
+				if (expression instanceof ClassExpression
+						|| expression instanceof ConstructorCallExpression) {
+					return CLASSES.contains(expression.getType().getName());
+				}
+				if (expression instanceof MethodCallExpression) {
+					return !FORBIDDEN_NAMES.contains(((MethodCallExpression) expression)
+							.getMethodAsString());
+				}
+				if (expression instanceof StaticMethodCallExpression) {
+					return !FORBIDDEN_NAMES.contains(((StaticMethodCallExpression) expression)
+							.getMethod());
+				}
+				if (expression instanceof PropertyExpression) {
+					return !FORBIDDEN_NAMES.contains(((PropertyExpression) expression)
+							.getPropertyAsString());
+				}
+				return true;
+			}
+		});
+
+		CompilerConfiguration configuration = new CompilerConfiguration();
+		configuration.setScriptBaseClass(KarotzScript.class.getName());
+		configuration.addCompilationCustomizers(
+				new ASTTransformationCustomizer(ThreadInterrupt.class), sandbox);
+		return configuration;
+	}
+
+	private static String sha1(String text) throws KarotzException {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new KarotzException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new KarotzException(e);
+		}
+	}
+}
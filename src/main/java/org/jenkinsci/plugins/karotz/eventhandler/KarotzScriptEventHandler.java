@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.eventhandler;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.util.FormValidation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.KarotzExecutors;
+import org.jenkinsci.plugins.karotz.action.KarotzActionSequence;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Event handler running a Groovy script, which builds the sequence of each
+ * event with the methods of {@link KarotzScript}.
+ * <p>
+ * The script is compiled once, and cached by {@link KarotzScriptCache}. Each
+ * event runs it on its own thread, abandoned if it lasts more than the
+ * timeout, so that a slow script never stalls the notifications. A script
+ * abandoned but still running, e.g. stuck in a call which cannot be
+ * interrupted, keeps the next events of the handler from running it again.
+ * <p>
+ * The script runs with the full trust of Jenkins, so only the administrators
+ * may configure it, in the global configuration, or even compile it.
+ */
+public class KarotzScriptEventHandler extends KarotzEventHandler {
+
+	/**
+	 * Default time a script may run, in seconds
+	 */
+	public static final int DEFAULT_TIMEOUT = 5;
+
+	/**
+	 * the Groovy script
+	 */
+	private final String script;
+
+	/**
+	 * Time a script may run, in seconds
+	 */
+	private final int timeout;
+
+	/**
+	 * Thread running the script, null when no run is in progress
+	 */
+	private transient volatile Thread runner;
+
+	@DataBoundConstructor
+	public KarotzScriptEventHandler(String script, int timeout) {
+		this.script = Util.fixNull(script);
+		this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void onStart(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.START);
+	}
+
+	@Override
+	public void onFailure(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.FAILURE);
+	}
+
+	@Override
+	public void onRecover(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.RECOVER);
+	}
+
+	@Override
+	public void onSuccess(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.SUCCESS);
+	}
+
+	@Override
+	public void onUnstable(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.UNSTABLE);
+	}
+
+	@Override
+	public void onFlapping(KarotzContext context) throws KarotzException {
+		run(context, KarotzEvent.FLAPPING);
+	}
+
+	private void run(KarotzContext context, KarotzEvent event) throws KarotzException {
+		KarotzActionSequence sequence = build(context, event);
+		if (!sequence.getActions().isEmpty()) {
+			sequence.execute(context);
+		}
+	}
+
+	/**
+	 * Runs the script to build the sequence of an event.
+	 *
+	 * @param context notification context
+	 * @param event the event
+	 * @return the sequence built by the script
+	 * @throws KarotzException if the script cannot be compiled, fails or lasts
+	 * too long, or if a previous run is still in progress
+	 */
+	KarotzActionSequence build(KarotzContext context, KarotzEvent event) throws KarotzException {
+		Thread previous = runner;
+		if (previous != null && previous.isAlive()) {
+			throw new KarotzException("The previous run of the script is still in progress");
+		}
+		final KarotzScript instance = KarotzScriptCache.newScript(script);
+		KarotzActionSequence sequence = new KarotzActionSequence();
+		instance.init(this, context, event, sequence);
+		Future<Object> future;
+		try {
+			future = KarotzExecutors.scripts().submit(new Callable<Object>() {
+				public Object call() {
+					runner = Thread.currentThread();
+					try {
+						return instance.run();
+					} finally {
+						runner = null;
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new KarotzException("Too many scripts are still running", e);
+		}
+		try {
+			future.get(timeout, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			// interrupts the loops of the script
+			future.cancel(true);
+			throw new KarotzException("The script lasted more than " + timeout + " seconds");
+		} catch (ExecutionException e) {
+			throw new KarotzException("The script failed: " + e.getCause(), e.getCause());
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw new KarotzException(e);
+		}
+		return sequence;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends KarotzEventHandlerDescriptor {
+
+		@Override
+		public String getDisplayName() {
+			return "Groovy Script EventHandler";
+		}
+
+		public int getDefaultTimeout() {
+			return DEFAULT_TIMEOUT;
+		}
+
+		/**
+		 * Compiles the script, so that it is already in the cache once saved.
+		 * Compiling runs the AST transformations of the script, so this is
+		 * restricted to the administrators.
+		 */
+		@RequirePOST
+		public FormValidation doCheckScript(@QueryParameter String value) {
+			Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+			try {
+				KarotzScriptCache.compile(Util.fixNull(value));
+				return FormValidation.ok();
+			} catch (KarotzException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		public FormValidation doCheckTimeout(@QueryParameter String value) {
+			return FormValidation.validatePositiveInteger(value);
+		}
+	}
+}
@@ -25,10 +25,11 @@ package org.jenkinsci.plugins.karotz.eventhandler;
 
 import hudson.Extension;
 import hudson.Util;
-import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
 import hudson.util.ListBoxModel;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
 import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.action.KarotzActionSequence;
 import org.jenkinsci.plugins.karotz.action.LedColor;
 import org.jenkinsci.plugins.karotz.action.LedFadeAction;
 import org.jenkinsci.plugins.karotz.action.LedLightAction;
@@ -151,67 +152,77 @@ public class KarotzSpeakEventHandler extends KarotzEventHandler {
     /**
      * Triggered on build start.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onStart(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
-        new LedFadeAction(LedColor.GREEN, 3000).execute(build, listener);
-        new SpeakAction(getStartText(), getLang()).execute(build, listener);
+    public void onStart(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedFadeAction(LedColor.GREEN, 3000));
+        announce(sequence, context, KarotzEvent.START, new SpeakAction(getStartText(), getLang()));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build failure.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onFailure(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onFailure(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
         for (int i = 5; i > 0; i--) {
-            new LedOffAction().execute(build, listener);
-            new LedLightAction(LedColor.RED).execute(build, listener);
+            sequence.add(new LedOffAction());
+            sequence.add(new LedLightAction(LedColor.RED));
         }
-        new SpeakAction(getFailureText(), getLang()).execute(build, listener);
+        announce(sequence, context, KarotzEvent.FAILURE, new SpeakAction(getFailureText(), getLang()));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build unstable.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onUnstable(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
-        new LedLightAction(LedColor.YELLOW).execute(build, listener);
-        new SpeakAction(getUnstableText(), getLang()).execute(build, listener);
+    public void onUnstable(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedLightAction(LedColor.YELLOW));
+        announce(sequence, context, KarotzEvent.UNSTABLE, new SpeakAction(getUnstableText(), getLang()));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build recover.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onRecover(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
-        new LedLightAction(LedColor.BLUE).execute(build, listener);
-        new SpeakAction(getRecoverText(), getLang()).execute(build, listener);
+    public void onRecover(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
+        sequence.add(new LedLightAction(LedColor.BLUE));
+        announce(sequence, context, KarotzEvent.RECOVER, new SpeakAction(getRecoverText(), getLang()));
+        sequence.execute(context);
     }
 
     /**
      * Triggered on build success.
      *
-     * @param build The build in progress
-     * @param listener build listener
+     * @param context notification context of the build in progress
      */
     @Override
-    public void onSuccess(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+    public void onSuccess(KarotzContext context) throws KarotzException {
+        KarotzActionSequence sequence = new KarotzActionSequence();
         for (int i = 5; i > 0; i--) {
-            new LedOffAction().execute(build, listener);
-            new LedLightAction(LedColor.BLUE).execute(build, listener);
+            sequence.add(new LedOffAction());
+            sequence.add(new LedLightAction(LedColor.BLUE));
         }
-        new SpeakAction(getSuccessText(), getLang()).execute(build, listener);
+        announce(sequence, context, KarotzEvent.SUCCESS, new SpeakAction(getSuccessText(), getLang()));
+        sequence.execute(context);
+    }
+
+    @Override
+    protected SpeakAction getFlappingSpeech() {
+        return new SpeakAction(FLAPPING_TEXT, getLang());
     }
 
     @Extension
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import java.util.Date;
+
+/**
+ * A notification which could not be delivered, and won't be retried unless
+ * it is replayed.
+ */
+public final class KarotzDeadLetter {
+
+	private final KarotzNotification notification;
+
+	private final String reason;
+
+	private final long failedAt;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @param reason
+	 *            why it could not be delivered
+	 * @param failedAt
+	 *            time of the last failure
+	 */
+	public KarotzDeadLetter(KarotzNotification notification, String reason,
+			long failedAt) {
+		this.notification = notification;
+		this.reason = reason;
+		this.failedAt = failedAt;
+	}
+
+	public KarotzNotification getNotification() {
+		return notification;
+	}
+
+	public String getId() {
+		return notification.getId();
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public long getFailedAt() {
+		return failedAt;
+	}
+
+	public Date getFailedDate() {
+		return new Date(failedAt);
+	}
+}
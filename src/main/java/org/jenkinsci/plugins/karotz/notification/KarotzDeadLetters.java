@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store of the notifications which permanently failed, kept in an XML file so
+ * that they can be inspected and replayed from the management page.
+ */
+public class KarotzDeadLetters {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzDeadLetters.class.getName());
+
+	/**
+	 * Maximum number of dead letters kept, the oldest ones are dropped first
+	 */
+	static final int MAX_SIZE = 1000;
+
+	private final XmlFile file;
+
+	private List<KarotzDeadLetter> letters;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 *            file of the store
+	 */
+	public KarotzDeadLetters(File file) {
+		this.file = new XmlFile(file);
+	}
+
+	/**
+	 * Adds a dead letter, replacing the previous one of the same notification.
+	 *
+	 * @param letter
+	 *            the dead letter
+	 */
+	public synchronized void add(KarotzDeadLetter letter) {
+		List<KarotzDeadLetter> all = load();
+		for (Iterator<KarotzDeadLetter> it = all.iterator(); it.hasNext();) {
+			if (it.next().getId().equals(letter.getId())) {
+				it.remove();
+			}
+		}
+		all.add(letter);
+		while (all.size() > MAX_SIZE) {
+			all.remove(0);
+		}
+		save();
+	}
+
+	/**
+	 * Gets all the dead letters.
+	 *
+	 * @return the dead letters, oldest first
+	 */
+	public synchronized List<KarotzDeadLetter> getAll() {
+		return new ArrayList<KarotzDeadLetter>(load());
+	}
+
+	public synchronized int size() {
+		return load().size();
+	}
+
+	/**
+	 * Removes some dead letters.
+	 *
+	 * @param ids
+	 *            ids of the notifications to remove
+	 * @return the removed dead letters, oldest first
+	 */
+	public synchronized List<KarotzDeadLetter> remove(Collection<String> ids) {
+		Set<String> removed = new HashSet<String>(ids);
+		List<KarotzDeadLetter> result = new ArrayList<KarotzDeadLetter>();
+		for (Iterator<KarotzDeadLetter> it = load().iterator(); it.hasNext();) {
+			KarotzDeadLetter letter = it.next();
+			if (removed.contains(letter.getId())) {
+				result.add(letter);
+				it.remove();
+			}
+		}
+		if (!result.isEmpty()) {
+			save();
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the dead letter of the latest build of each job.
+	 *
+	 * @param letters
+	 *            the dead letters
+	 * @return the latest dead letter of each job, in the order of the jobs
+	 */
+	static List<KarotzDeadLetter> latestPerJob(List<KarotzDeadLetter> letters) {
+		Map<String, KarotzDeadLetter> latest = new LinkedHashMap<String, KarotzDeadLetter>();
+		for (KarotzDeadLetter letter : letters) {
+			KarotzNotification notification = letter.getNotification();
+			KarotzDeadLetter current = latest.get(notification.getJobName());
+			if (current == null
+					|| isLater(notification, current.getNotification())) {
+				latest.put(notification.getJobName(), letter);
+			}
+		}
+		return new ArrayList<KarotzDeadLetter>(latest.values());
+	}
+
+	private static boolean isLater(KarotzNotification a, KarotzNotification b) {
+		if (a.getBuildNumber() != b.getBuildNumber()) {
+			return a.getBuildNumber() > b.getBuildNumber();
+		}
+		return a.getCreatedAt() >= b.getCreatedAt();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<KarotzDeadLetter> load() {
+		if (letters == null) {
+			letters = new ArrayList<KarotzDeadLetter>();
+			if (file.exists()) {
+				try {
+					letters.addAll((List<KarotzDeadLetter>) file.read());
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+				}
+			}
+		}
+		return letters;
+	}
+
+	private void save() {
+		try {
+			file.write(letters);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+		}
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzClient;
+import org.jenkinsci.plugins.karotz.KarotzConfig;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.KarotzExecutors;
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+
+/**
+ * Delivers the notifications to the Karotz, through the outbox.
+ * <p>
+ * A notification is stored in the outbox before being sent, and acknowledged
+ * once sent. The jobs take turns on the Karotz, see {@link KarotzFairQueue},
+ * and the notifications are cut down while the backlog is too long, see
+ * {@link KarotzLoadShedder}.
+ * <p>
+ * Each job has a single slot: a newer result of a job replaces the older ones
+ * still pending, and cancels the one being sent. A build which is aborted or
+ * deleted is not announced anymore. If it cannot be sent, it stays in the
+ * outbox and is redelivered later by {@link KarotzOutboxWork}, including
+ * after a restart. A notification refused by the Karotz API, or still not
+ * delivered once its retry budget is exhausted, is moved to the dead letters.
+ */
+public final class KarotzDispatcher {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzDispatcher.class.getName());
+
+	private static final KarotzDispatcher INSTANCE = new KarotzDispatcher();
+
+	private static final String OUTBOX_NAME = "karotz-outbox.journal";
+
+	private static final int INITIAL_CAPACITY = 1024 * 1024;
+
+	private static final int MAX_CAPACITY = 64 * 1024 * 1024;
+
+	private static final String DEAD_LETTERS_NAME = "karotz-dead-letters.xml";
+
+	/**
+	 * How long a notification is retried before being moved to the dead
+	 * letters
+	 */
+	static final long RETRY_BUDGET = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * Maximum number of notifications redelivered at once
+	 */
+	static final int BATCH_SIZE = 20;
+
+	/**
+	 * Maximum number of pending notifications read to choose a batch
+	 */
+	static final int WINDOW_SIZE = 10 * BATCH_SIZE;
+
+	/**
+	 * Age after which a success is not worth announcing anymore, when
+	 * shedding load
+	 */
+	static final long STALE_SUCCESS_AGE = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Ids of the notifications being delivered
+	 */
+	private final Set<String> inFlight = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Context of the notifications being sent
+	 */
+	private final ConcurrentMap<KarotzNotification, KarotzContext> sending = new ConcurrentHashMap<KarotzNotification, KarotzContext>();
+
+	/**
+	 * Whether a redelivery of the outbox is already queued
+	 */
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+	private KarotzOutbox outbox;
+
+	private KarotzDeadLetters deadLetters;
+
+	private final KarotzFairQueue fairQueue = new KarotzFairQueue();
+
+	private final KarotzLoadShedder loadShedder = new KarotzLoadShedder();
+
+	private KarotzDispatcher() {
+	}
+
+	public static KarotzDispatcher get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the outbox, opening it if needed.
+	 *
+	 * @return the outbox
+	 * @throws IOException
+	 *             if the outbox cannot be opened
+	 */
+	public synchronized KarotzOutbox getOutbox() throws IOException {
+		if (outbox == null) {
+			outbox = new KarotzOutbox(new File(Jenkins.getInstance()
+					.getRootDir(), OUTBOX_NAME), INITIAL_CAPACITY, MAX_CAPACITY);
+		}
+		return outbox;
+	}
+
+	public synchronized KarotzDeadLetters getDeadLetters() {
+		if (deadLetters == null) {
+			deadLetters = new KarotzDeadLetters(new File(Jenkins.getInstance()
+					.getRootDir(), DEAD_LETTERS_NAME));
+		}
+		return deadLetters;
+	}
+
+	public KarotzFairQueue getFairQueue() {
+		return fairQueue;
+	}
+
+	public KarotzLoadShedder getLoadShedder() {
+		return loadShedder;
+	}
+
+	/**
+	 * Queues a notification, to be sent in the background. The caller does
+	 * not wait for the Karotz at all.
+	 *
+	 * @param notification
+	 *            the notification
+	 */
+	public void enqueue(KarotzNotification notification) {
+		supersede(notification);
+		try {
+			if (!getOutbox().put(notification)) {
+				LOGGER.log(Level.WARNING, "Dropping {0}, the outbox is full",
+						notification);
+				return;
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to queue " + notification, e);
+			return;
+		}
+		scheduleDrain();
+	}
+
+	/**
+	 * Redelivers the pending notifications in the background, unless it is
+	 * already planned. The notifications are only ever delivered on
+	 * {@link KarotzExecutors#notifications()}, one drain at a time.
+	 */
+	public void scheduleDrain() {
+		if (!drainScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		KarotzExecutors.notifications().execute(new Runnable() {
+			public void run() {
+				// notifications queued from now on need another drain
+				drainScheduled.set(false);
+				try {
+					redeliver(new LogTaskListener(LOGGER, Level.INFO));
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING,
+							"Failed to deliver queued notifications", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Redelivers the pending notifications in batches, each job or folder in
+	 * turn. Stops at the first one that cannot be sent yet. Only runs on
+	 * the notifications thread, see {@link #scheduleDrain()}.
+	 *
+	 * @param listener
+	 *            listener used to report problems
+	 * @return number of notifications redelivered
+	 * @throws IOException
+	 *             if the outbox cannot be read
+	 */
+	private int redeliver(TaskListener listener) throws IOException {
+		KarotzConfig config = Jenkins.getInstance()
+				.getDescriptorByType(KarotzPublisherDescriptor.class)
+				.getConfig();
+		if (config == null) {
+			return 0;
+		}
+		dropOverflow(config);
+		KarotzOutbox.Key key = config.getFairShareKey();
+		int delivered = 0;
+		List<KarotzNotification> batch;
+		do {
+			KarotzDegradation level = updateLoad();
+			// a flow cannot get more than a batch, so the window holds the
+			// oldest notifications of many flows
+			batch = fairQueue.schedule(
+					getOutbox().pending(WINDOW_SIZE, inFlight, key, BATCH_SIZE),
+					key, config.getFairShareWeights(), BATCH_SIZE);
+			for (KarotzNotification notification : batch) {
+				if (!inFlight.add(notification.getId())) {
+					continue;
+				}
+				try {
+					if (!redeliver(notification, config, level, listener)) {
+						return delivered;
+					}
+					fairQueue.sent(notification, key);
+					delivered++;
+				} finally {
+					inFlight.remove(notification.getId());
+				}
+			}
+		} while (!batch.isEmpty());
+		return delivered;
+	}
+
+	/**
+	 * Updates the degradation level from the backlog.
+	 */
+	private KarotzDegradation updateLoad() throws IOException {
+		KarotzNotification oldest = getOutbox().oldestPending();
+		long age = oldest != null ? System.currentTimeMillis()
+				- oldest.getCreatedAt() : 0;
+		return loadShedder.update(getOutbox().getPendingCount(), age);
+	}
+
+	/**
+	 * Whether a notification is dropped to catch up: only successes, so that
+	 * failures are still announced.
+	 */
+	private static boolean isShed(KarotzNotification notification,
+			KarotzDegradation level) {
+		return level.includes(KarotzDegradation.DROP_STALE_SUCCESS)
+				&& notification.getEvent() == KarotzEvent.SUCCESS
+				&& System.currentTimeMillis() - notification.getCreatedAt()
+						> STALE_SUCCESS_AGE;
+	}
+
+	/**
+	 * Drops the oldest pending notifications of the jobs over their cap.
+	 */
+	private void dropOverflow(KarotzConfig config) throws IOException {
+		// the rest, if any, is dropped by the next redelivery
+		for (KarotzNotification notification : getOutbox().overflow(
+				KarotzFairQueue.JOB, config.getFairShareCap(), WINDOW_SIZE)) {
+			LOGGER.log(Level.FINE, "Dropping {0}, its job is over its cap",
+					notification);
+			fairQueue.dropped(notification, config.getFairShareKey());
+			acknowledge(notification);
+		}
+	}
+
+	/**
+	 * Redelivers a notification.
+	 *
+	 * @return false if it cannot be sent yet
+	 */
+	private boolean redeliver(KarotzNotification notification,
+			KarotzConfig config, KarotzDegradation level, TaskListener listener) {
+		AbstractBuild<?, ?> build = notification.findBuild();
+		if (build != null && isStale(notification, build)) {
+			LOGGER.log(Level.FINE, "Dropping {0}, the build is over",
+					notification);
+		} else if (isShed(notification, level)) {
+			LOGGER.log(Level.FINE, "Dropping {0}, the Karotz is behind",
+					notification);
+		} else if (build != null) {
+			long delay = config.getClient().getRateLimiter().getDelayMillis();
+			if (delay > 0) {
+				retryLater(notification, delay);
+				return false;
+			}
+			KarotzContext context = new KarotzContext(build, listener, config,
+					config.getClient(), level, notification.getEvent());
+			sending.put(notification, context);
+			try {
+				// dropped since the batch was read
+				if (getOutbox().isPending(notification)) {
+					send(notification, context);
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to read the outbox", e);
+				return false;
+			} catch (KarotzException e) {
+				if (context.isCancelled()) {
+					LOGGER.log(Level.FINE, "Cancelled {0}", notification);
+				} else if (e.getRetryAfter() > 0) {
+					retryLater(notification, e.getRetryAfter());
+					return false;
+				} else {
+					listener.getLogger().println(e);
+					long age = System.currentTimeMillis()
+							- notification.getCreatedAt();
+					if (!e.isFatal() && age < RETRY_BUDGET) {
+						return false;
+					}
+					deadLetter(notification, e);
+				}
+			} finally {
+				sending.remove(notification);
+			}
+		}
+		// else the build has been deleted, nothing to announce anymore
+		acknowledge(notification);
+		return true;
+	}
+
+	/**
+	 * Redelivers the outbox once the rate limiter lets requests through
+	 * again, instead of holding the notifications thread meanwhile.
+	 */
+	private void retryLater(KarotzNotification notification, long delay) {
+		LOGGER.log(Level.FINE, "Throttled, {0} is sent again in {1}ms",
+				new Object[] { notification, delay });
+		KarotzExecutors.timer().schedule(new Runnable() {
+			public void run() {
+				scheduleDrain();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Replays dead letters through the outbox, in the background.
+	 *
+	 * @param letters
+	 *            the dead letters, already removed from the store; those which
+	 *            cannot be queued are put back
+	 * @throws IOException
+	 *             if the outbox cannot be written
+	 */
+	public void replay(List<KarotzDeadLetter> letters) throws IOException {
+		long now = System.currentTimeMillis();
+		int queued = 0;
+		try {
+			for (KarotzDeadLetter letter : letters) {
+				KarotzNotification notification = letter.getNotification();
+				// a replayed notification gets a new retry budget
+				KarotzNotification replayed = new KarotzNotification(
+						notification.getJobName(),
+						notification.getBuildNumber(), notification.getEvent(),
+						now);
+				if (!getOutbox().put(replayed)) {
+					throw new IOException("The Karotz outbox is full");
+				}
+				queued++;
+			}
+		} finally {
+			for (KarotzDeadLetter letter : letters.subList(queued,
+					letters.size())) {
+				getDeadLetters().add(letter);
+			}
+			if (queued > 0) {
+				scheduleDrain();
+			}
+		}
+	}
+
+	/**
+	 * Drops the notifications of a job replaced by a newer result: the older
+	 * results, and the start of the builds up to this one.
+	 */
+	private void supersede(final KarotzNotification notification) {
+		if (notification.getEvent() == KarotzEvent.START) {
+			return;
+		}
+		cancel(notification.getJobName(), new Filter() {
+			boolean matches(KarotzNotification older) {
+				return older.getBuildNumber() < notification.getBuildNumber()
+						|| older.getBuildNumber() == notification.getBuildNumber()
+						&& older.getEvent() == KarotzEvent.START;
+			}
+		}, "superseded by " + notification);
+	}
+
+	/**
+	 * Drops the start notification of a completed build, and all of its
+	 * notifications if it has been aborted.
+	 *
+	 * @param build
+	 *            the completed build
+	 */
+	public void completed(final AbstractBuild<?, ?> build) {
+		final boolean aborted = build.getResult() == Result.ABORTED;
+		cancel(build.getProject().getFullName(), new Filter() {
+			boolean matches(KarotzNotification notification) {
+				return notification.getBuildNumber() == build.getNumber()
+						&& (aborted || notification.getEvent() == KarotzEvent.START);
+			}
+		}, aborted ? "the build has been aborted" : "the build is over");
+	}
+
+	/**
+	 * Drops all the notifications of a deleted build.
+	 *
+	 * @param build
+	 *            the deleted build
+	 */
+	public void deleted(final AbstractBuild<?, ?> build) {
+		cancel(build.getProject().getFullName(), new Filter() {
+			boolean matches(KarotzNotification notification) {
+				return notification.getBuildNumber() == build.getNumber();
+			}
+		}, "the build has been deleted");
+	}
+
+	/**
+	 * Acknowledges the pending notifications of a job matching a filter, and
+	 * cancels the one being sent.
+	 */
+	private void cancel(String jobName, Filter filter, String reason) {
+		for (Map.Entry<KarotzNotification, KarotzContext> entry : sending
+				.entrySet()) {
+			KarotzNotification notification = entry.getKey();
+			if (notification.getJobName().equals(jobName)
+					&& filter.matches(notification)) {
+				LOGGER.log(Level.FINE, "Cancelling {0}, {1}", new Object[] {
+						notification, reason });
+				entry.getValue().cancel();
+			}
+		}
+		try {
+			for (KarotzNotification notification : getOutbox().pending(
+					KarotzFairQueue.JOB, jobName)) {
+				if (filter.matches(notification)) {
+					LOGGER.log(Level.FINE, "Dropping {0}, {1}", new Object[] {
+							notification, reason });
+					acknowledge(notification);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to read the outbox", e);
+		}
+	}
+
+	/**
+	 * Whether a notification is not worth announcing anymore: a build is not
+	 * announced as started once it is over.
+	 */
+	private static boolean isStale(KarotzNotification notification,
+			AbstractBuild<?, ?> build) {
+		return notification.getEvent() == KarotzEvent.START
+				&& !build.isBuilding();
+	}
+
+	private void deadLetter(KarotzNotification notification,
+			KarotzException e) {
+		LOGGER.log(Level.WARNING, "Giving up on " + notification, e);
+		getDeadLetters().add(
+				new KarotzDeadLetter(notification, String.valueOf(e
+						.getMessage()), System.currentTimeMillis()));
+	}
+
+	private void acknowledge(KarotzNotification notification) {
+		try {
+			if (!getOutbox().ack(notification)) {
+				LOGGER.log(Level.WARNING, "Failed to acknowledge {0}",
+						notification);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to acknowledge " + notification,
+					e);
+		}
+	}
+
+	/**
+	 * Selects notifications.
+	 */
+	private abstract static class Filter {
+
+		abstract boolean matches(KarotzNotification notification);
+	}
+
+	private void send(KarotzNotification notification, KarotzContext context)
+			throws KarotzException {
+		KarotzClient client = context.getClient();
+		client.startInteractiveMode();
+		try {
+			notification.getEvent().fire(
+					context.getConfig().getEventHandler(), context);
+		} finally {
+			try {
+				client.stopInteractiveMode();
+			} catch (KarotzException e) {
+				context.getListener().getLogger().println(e);
+			}
+		}
+	}
+}
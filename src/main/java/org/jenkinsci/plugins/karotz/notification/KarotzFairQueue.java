@@ -0,0 +1,343 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the Karotz fairly between the jobs, so that a job building every
+ * minute does not delay the notifications of the others.
+ * <p>
+ * The pending notifications are grouped in flows, one per job or per folder,
+ * and sent by deficit round robin: at each round, a flow may send as many
+ * notifications as its weight, and the flows take turns in the order they
+ * were last served. The state of the rounds is kept from one batch to the
+ * next, for the flows which still have pending notifications, together with
+ * the time the notifications of the recently active flows waited.
+ */
+public class KarotzFairQueue {
+
+	/**
+	 * Weight of the flows without a configured weight
+	 */
+	public static final int DEFAULT_WEIGHT = 1;
+
+	/**
+	 * Number of idle flows whose statistics are kept
+	 */
+	static final int MAX_IDLE_FLOWS = 100;
+
+	/**
+	 * Groups the notifications by job, used for the caps.
+	 */
+	public static final KarotzOutbox.Key JOB = new KarotzOutbox.Key() {
+		public String of(KarotzNotification notification) {
+			return notification.getJobName();
+		}
+	};
+
+	/**
+	 * Groups the notifications by folder, jobs at the top level being their
+	 * own flow.
+	 */
+	public static final KarotzOutbox.Key FOLDER = new KarotzOutbox.Key() {
+		public String of(KarotzNotification notification) {
+			String jobName = notification.getJobName();
+			int slash = jobName.lastIndexOf('/');
+			return slash > 0 ? jobName.substring(0, slash) : jobName;
+		}
+	};
+
+	/**
+	 * Flows with pending notifications, in the order of their next turn, the
+	 * next one first
+	 */
+	private final LinkedHashMap<String, Flow> flows = new LinkedHashMap<String, Flow>();
+
+	/**
+	 * Statistics of the flows, the least recently active first
+	 */
+	private final LinkedHashMap<String, Flow> statistics = new LinkedHashMap<String, Flow>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Flow> eldest) {
+			return size() > flows.size() + MAX_IDLE_FLOWS
+					&& !flows.containsKey(eldest.getKey());
+		}
+	};
+
+	/**
+	 * Orders a window of pending notifications, giving each flow its share.
+	 *
+	 * @param window
+	 *            the pending notifications, oldest first
+	 * @param key
+	 *            the grouping in flows
+	 * @param weights
+	 *            weight of each flow, {@link #DEFAULT_WEIGHT} for the others
+	 * @param limit
+	 *            maximum number of notifications to return
+	 * @return the notifications, in the order they should be sent
+	 */
+	public synchronized List<KarotzNotification> schedule(
+			List<KarotzNotification> window, KarotzOutbox.Key key,
+			Map<String, Integer> weights, int limit) {
+		Map<String, LinkedList<KarotzNotification>> queues = new LinkedHashMap<String, LinkedList<KarotzNotification>>();
+		for (KarotzNotification notification : window) {
+			String name = key.of(notification);
+			LinkedList<KarotzNotification> queue = queues.get(name);
+			if (queue == null) {
+				queue = new LinkedList<KarotzNotification>();
+				queues.put(name, queue);
+			}
+			queue.add(notification);
+		}
+		// the flows without pending notifications leave the rounds
+		Iterator<Flow> idle = flows.values().iterator();
+		while (idle.hasNext()) {
+			Flow flow = idle.next();
+			if (!queues.containsKey(flow.name)) {
+				flow.deficit = 0;
+				idle.remove();
+			}
+		}
+		for (String name : queues.keySet()) {
+			Flow flow = getFlow(name);
+			if (!flows.containsKey(name)) {
+				flows.put(name, flow);
+			}
+		}
+		List<KarotzNotification> scheduled = new ArrayList<KarotzNotification>();
+		while (scheduled.size() < limit && !queues.isEmpty()) {
+			Flow flow = nextTurn();
+			LinkedList<KarotzNotification> queue = queues.get(flow.name);
+			if (queue == null) {
+				// idle flows do not save up their share
+				flow.deficit = 0;
+				continue;
+			}
+			flow.deficit += getWeight(weights, flow.name);
+			while (flow.deficit >= 1 && !queue.isEmpty()
+					&& scheduled.size() < limit) {
+				scheduled.add(queue.removeFirst());
+				flow.deficit--;
+			}
+			if (queue.isEmpty()) {
+				queues.remove(flow.name);
+				flow.deficit = 0;
+			}
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Records that a notification has been sent.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @param key
+	 *            the grouping in flows
+	 */
+	public synchronized void sent(KarotzNotification notification,
+			KarotzOutbox.Key key) {
+		long wait = Math.max(0,
+				System.currentTimeMillis() - notification.getCreatedAt());
+		Flow flow = getFlow(key.of(notification));
+		flow.sent++;
+		flow.totalWait += wait;
+		flow.maxWait = Math.max(flow.maxWait, wait);
+	}
+
+	/**
+	 * Records that a notification has been dropped, its job being over its
+	 * cap.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @param key
+	 *            the grouping in flows
+	 */
+	public synchronized void dropped(KarotzNotification notification,
+			KarotzOutbox.Key key) {
+		getFlow(key.of(notification)).dropped++;
+	}
+
+	/**
+	 * Gets the statistics of the flows.
+	 *
+	 * @return a copy of the flows, sorted by name
+	 */
+	public synchronized List<Flow> getFlows() {
+		List<Flow> copies = new ArrayList<Flow>();
+		for (Flow flow : statistics.values()) {
+			copies.add(new Flow(flow));
+		}
+		Collections.sort(copies);
+		return copies;
+	}
+
+	/**
+	 * Forgets the statistics and the rounds.
+	 */
+	public synchronized void clear() {
+		flows.clear();
+		statistics.clear();
+	}
+
+	/**
+	 * Parses weights given as lines of <code>name=weight</code>.
+	 *
+	 * @param text
+	 *            the weights, may be null
+	 * @return the weight of each flow
+	 * @throws IllegalArgumentException
+	 *             if a line is invalid
+	 */
+	public static Map<String, Integer> parseWeights(String text) {
+		Map<String, Integer> weights = new HashMap<String, Integer>();
+		if (text == null) {
+			return weights;
+		}
+		for (String line : text.split("\n")) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			int equals = line.lastIndexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Expected name=weight: "
+						+ line);
+			}
+			int weight;
+			try {
+				weight = Integer.parseInt(line.substring(equals + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid weight: " + line);
+			}
+			if (weight <= 0) {
+				throw new IllegalArgumentException(
+						"The weight should be positive: " + line);
+			}
+			weights.put(line.substring(0, equals).trim(), weight);
+		}
+		return weights;
+	}
+
+	/**
+	 * Gets the statistics of a flow, which becomes the most recently active.
+	 */
+	private Flow getFlow(String name) {
+		Flow flow = statistics.get(name);
+		if (flow == null) {
+			flow = new Flow(name);
+			statistics.put(name, flow);
+		}
+		return flow;
+	}
+
+	/**
+	 * Takes the flow whose turn it is, and moves it to the end of the line.
+	 */
+	private Flow nextTurn() {
+		Iterator<Flow> it = flows.values().iterator();
+		Flow flow = it.next();
+		it.remove();
+		flows.put(flow.name, flow);
+		return flow;
+	}
+
+	private static int getWeight(Map<String, Integer> weights, String name) {
+		Integer weight = weights.get(name);
+		return weight != null ? weight : DEFAULT_WEIGHT;
+	}
+
+	/**
+	 * A flow of notifications, with its statistics.
+	 */
+	public static final class Flow implements Comparable<Flow> {
+
+		private final String name;
+
+		private int deficit;
+
+		private long sent;
+
+		private long dropped;
+
+		private long totalWait;
+
+		private long maxWait;
+
+		Flow(String name) {
+			this.name = name;
+		}
+
+		Flow(Flow flow) {
+			this.name = flow.name;
+			this.deficit = flow.deficit;
+			this.sent = flow.sent;
+			this.dropped = flow.dropped;
+			this.totalWait = flow.totalWait;
+			this.maxWait = flow.maxWait;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSent() {
+			return sent;
+		}
+
+		public long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Gets the average time the sent notifications waited.
+		 *
+		 * @return the average wait in milliseconds
+		 */
+		public long getAverageWait() {
+			return sent > 0 ? totalWait / sent : 0;
+		}
+
+		public long getMaxWait() {
+			return maxWait;
+		}
+
+		public int compareTo(Flow other) {
+			return name.compareTo(other.name);
+		}
+	}
+}
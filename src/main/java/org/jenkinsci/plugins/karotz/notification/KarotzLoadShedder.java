@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+
+/**
+ * Chooses how much the notifications are cut down, from the number of
+ * pending notifications and the age of the oldest one, so that failures are
+ * still announced quickly during a storm of builds.
+ * <p>
+ * Each level is entered as soon as the backlog reaches its thresholds, and
+ * left one level at a time once the backlog is back under half of them, so
+ * that the level does not flap around a threshold.
+ */
+public class KarotzLoadShedder {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(KarotzLoadShedder.class.getName());
+
+	/**
+	 * Number of pending notifications entering each level, from
+	 * {@link KarotzDegradation#SHORT_SPEECH}
+	 */
+	static final int[] DEFAULT_DEPTHS = { 10, 20, 40, 80 };
+
+	/**
+	 * Age of the oldest pending notification entering each level, from
+	 * {@link KarotzDegradation#SHORT_SPEECH}
+	 */
+	static final long[] DEFAULT_AGES = { TimeUnit.MINUTES.toMillis(1),
+			TimeUnit.MINUTES.toMillis(2), TimeUnit.MINUTES.toMillis(5),
+			TimeUnit.MINUTES.toMillis(10) };
+
+	private static final KarotzDegradation[] LEVELS = KarotzDegradation
+			.values();
+
+	private final int[] depths;
+
+	private final long[] ages;
+
+	private volatile KarotzDegradation level = KarotzDegradation.NONE;
+
+	public KarotzLoadShedder() {
+		this(DEFAULT_DEPTHS, DEFAULT_AGES);
+	}
+
+	KarotzLoadShedder(int[] depths, long[] ages) {
+		this.depths = depths;
+		this.ages = ages;
+	}
+
+	public KarotzDegradation getLevel() {
+		return level;
+	}
+
+	/**
+	 * Updates the level from the backlog.
+	 *
+	 * @param depth
+	 *            number of pending notifications
+	 * @param age
+	 *            age of the oldest pending notification in milliseconds, 0 if
+	 *            none
+	 * @return the new level
+	 */
+	public synchronized KarotzDegradation update(int depth, long age) {
+		int current = level.ordinal();
+		int next = current;
+		int reached = 0;
+		while (reached < depths.length
+				&& (depth >= depths[reached] || age >= ages[reached])) {
+			reached++;
+		}
+		if (reached > current) {
+			next = reached;
+		} else if (current > 0 && depth < depths[current - 1] / 2
+				&& age < ages[current - 1] / 2) {
+			next = current - 1;
+		}
+		if (next != current) {
+			level = LEVELS[next];
+			LOGGER.log(Level.INFO,
+					"Karotz notifications now sent as: {0} ({1} pending)",
+					new Object[] { level.getDisplayName(), depth });
+		}
+		return level;
+	}
+}
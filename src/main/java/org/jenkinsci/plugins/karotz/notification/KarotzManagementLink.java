@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+import org.jenkinsci.plugins.karotz.KarotzPublisher.KarotzPublisherDescriptor;
+import org.jenkinsci.plugins.karotz.KarotzRateLimiter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Management page of the Karotz notifications: pending notifications, dead
+ * letters and their replay.
+ */
+@Extension
+public class KarotzManagementLink extends ManagementLink {
+
+	@Override
+	public String getIconFileName() {
+		return "notepad.png";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "karotz";
+	}
+
+	public String getDisplayName() {
+		return "Karotz notifications";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Pending and failed Karotz notifications.";
+	}
+
+	public int getPendingCount() throws IOException {
+		return KarotzDispatcher.get().getOutbox().getPendingCount();
+	}
+
+	public List<KarotzDeadLetter> getDeadLetters() {
+		List<KarotzDeadLetter> letters = KarotzDispatcher.get()
+				.getDeadLetters().getAll();
+		Collections.reverse(letters);
+		return letters;
+	}
+
+	public KarotzDegradation getDegradation() {
+		return KarotzDispatcher.get().getLoadShedder().getLevel();
+	}
+
+	public List<KarotzFairQueue.Flow> getFlows() {
+		return KarotzDispatcher.get().getFairQueue().getFlows();
+	}
+
+	public KarotzRateLimiter getRateLimiter() {
+		return Jenkins.getInstance()
+				.getDescriptorByType(KarotzPublisherDescriptor.class)
+				.getRateLimiter();
+	}
+
+	/**
+	 * Replays the selected dead letters.
+	 */
+	@RequirePOST
+	public void doReplay(StaplerRequest req, StaplerResponse rsp)
+			throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		KarotzDeadLetters deadLetters = KarotzDispatcher.get().getDeadLetters();
+		List<String> ids = getSelectedIds(req);
+		if (req.getParameter("latestOnly") != null) {
+			// the older failures of a job stay in the dead letters, to be
+			// replayed or deleted on their own
+			Set<String> selected = new HashSet<String>(ids);
+			List<KarotzDeadLetter> letters = new ArrayList<KarotzDeadLetter>();
+			for (KarotzDeadLetter letter : deadLetters.getAll()) {
+				if (selected.contains(letter.getId())) {
+					letters.add(letter);
+				}
+			}
+			ids = new ArrayList<String>();
+			for (KarotzDeadLetter letter : KarotzDeadLetters
+					.latestPerJob(letters)) {
+				ids.add(letter.getId());
+			}
+		}
+		KarotzDispatcher.get().replay(deadLetters.remove(ids));
+		rsp.sendRedirect(".");
+	}
+
+	/**
+	 * Deletes the selected dead letters.
+	 */
+	@RequirePOST
+	public void doDelete(StaplerRequest req, StaplerResponse rsp)
+			throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		KarotzDispatcher.get().getDeadLetters().remove(getSelectedIds(req));
+		rsp.sendRedirect(".");
+	}
+
+	private List<String> getSelectedIds(StaplerRequest req) {
+		String[] ids = req.getParameterValues("id");
+		return ids != null ? Arrays.asList(ids) : Collections
+				.<String> emptyList();
+	}
+}
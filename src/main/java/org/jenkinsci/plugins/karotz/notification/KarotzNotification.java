@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+
+/**
+ * An event of a build to announce.
+ * <p>
+ * Notifications only refer to their build by job name and number, so that
+ * they can be stored and delivered after the build has been unloaded, or
+ * after a restart of Jenkins.
+ */
+public final class KarotzNotification {
+
+	private final String jobName;
+
+	private final int buildNumber;
+
+	private final KarotzEvent event;
+
+	private final long createdAt;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param jobName
+	 *            full name of the job
+	 * @param buildNumber
+	 *            number of the build
+	 * @param event
+	 *            the event to announce
+	 * @param createdAt
+	 *            time at which the event happened
+	 */
+	public KarotzNotification(String jobName, int buildNumber,
+			KarotzEvent event, long createdAt) {
+		this.jobName = jobName;
+		this.buildNumber = buildNumber;
+		this.event = event;
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * Creates a notification of an event which has just happened.
+	 *
+	 * @param build
+	 *            the build
+	 * @param event
+	 *            the event
+	 * @return the notification
+	 */
+	public static KarotzNotification of(AbstractBuild<?, ?> build,
+			KarotzEvent event) {
+		return new KarotzNotification(build.getProject().getFullName(),
+				build.getNumber(), event, System.currentTimeMillis());
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public int getBuildNumber() {
+		return buildNumber;
+	}
+
+	public KarotzEvent getEvent() {
+		return event;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Gets the id of the build, e.g. <code>folder/job#42</code>.
+	 *
+	 * @return build id
+	 */
+	public String getBuildId() {
+		return jobName + '#' + buildNumber;
+	}
+
+	/**
+	 * Gets the id of this notification. A build has at most one notification
+	 * for each event.
+	 *
+	 * @return notification id
+	 */
+	public String getId() {
+		return getBuildId() + ':' + event.name();
+	}
+
+	/**
+	 * Looks the build up.
+	 *
+	 * @return the build, or null if it does not exist anymore
+	 */
+	public AbstractBuild<?, ?> findBuild() {
+		AbstractProject<?, ?> project = Jenkins.getInstance()
+				.getItemByFullName(jobName, AbstractProject.class);
+		if (project == null) {
+			return null;
+		}
+		return project.getBuildByNumber(buildNumber);
+	}
+
+	byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(jobName);
+		out.writeInt(buildNumber);
+		out.writeUTF(event.name());
+		out.writeLong(createdAt);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static KarotzNotification fromBytes(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes));
+		try {
+			String jobName = in.readUTF();
+			int buildNumber = in.readInt();
+			KarotzEvent event = KarotzEvent.valueOf(in.readUTF());
+			long createdAt = in.readLong();
+			return new KarotzNotification(jobName, buildNumber, event,
+					createdAt);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown event: " + e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return event.getDisplayName() + " of " + getBuildId();
+	}
+}
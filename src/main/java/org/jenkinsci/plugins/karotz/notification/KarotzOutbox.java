@@ -0,0 +1,705 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable outbox of the notifications which have not been delivered yet.
+ * <p>
+ * The outbox is an append-only journal, mapped in memory. A notification is
+ * appended before being delivered, and an acknowledgement is appended once
+ * it has been delivered, so that the pending notifications can be replayed
+ * after a restart. Each record is
+ * <code>[length][CRC-32][type][payload]</code>; a record whose checksum does
+ * not match (e.g. one being written when Jenkins was killed) ends the
+ * journal.
+ * <p>
+ * When the journal is full, it is compacted into a new file holding only the
+ * pending notifications, and grown if needed up to a maximum size. Pending
+ * notifications are read from the journal in small batches, so that memory
+ * use does not depend on how many of them are waiting; only their ids and
+ * offsets are kept in memory, in an index rebuilt when the journal is opened,
+ * together with the ids of each group, e.g. of each job, built the first
+ * time the notifications are grouped that way.
+ * <p>
+ * The journal is only read or written while holding the monitor of the
+ * outbox, so that it is never unmapped while in use.
+ */
+public class KarotzOutbox {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOGGER = Logger.getLogger(KarotzOutbox.class
+			.getName());
+
+	/**
+	 * Groups the notifications, e.g. by job.
+	 */
+	public interface Key {
+
+		/**
+		 * Gets the group of a notification.
+		 *
+		 * @param notification
+		 *            the notification
+		 * @return the group
+		 */
+		String of(KarotzNotification notification);
+	}
+
+	private static final byte PUT = 1;
+
+	private static final byte ACK = 2;
+
+	/**
+	 * Length (int) and CRC-32 (long) of the body of a record
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	private final File file;
+
+	private final int maxCapacity;
+
+	private RandomAccessFile raf;
+
+	private MappedByteBuffer buffer;
+
+	private int capacity;
+
+	/**
+	 * Offset at which the next record is written; everything after it is zero
+	 */
+	private int position;
+
+	/**
+	 * Offset of the oldest record of each pending notification, oldest first
+	 */
+	private final Map<String, Integer> index = new LinkedHashMap<String, Integer>();
+
+	/**
+	 * Pending notifications of each group, for each grouping used so far
+	 */
+	private final Map<Key, Groups> groupings = new HashMap<Key, Groups>();
+
+	/**
+	 * Opens the outbox, creating it if needed.
+	 *
+	 * @param file
+	 *            the journal
+	 * @param initialCapacity
+	 *            initial size of the journal in bytes
+	 * @param maxCapacity
+	 *            maximum size of the journal in bytes
+	 * @throws IOException
+	 *             if the journal cannot be opened
+	 */
+	public KarotzOutbox(File file, int initialCapacity, int maxCapacity)
+			throws IOException {
+		this.file = file;
+		this.maxCapacity = maxCapacity;
+		File old = getOldFile();
+		if (!file.exists() && old.exists() && !old.renameTo(file)) {
+			// stopped while the journal was being replaced
+			throw new IOException("Failed to restore " + old);
+		}
+		open((int) Math.max(initialCapacity, file.length()));
+		recover();
+	}
+
+	/**
+	 * Appends a notification to deliver.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @return false if the outbox is full
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public synchronized boolean put(KarotzNotification notification)
+			throws IOException {
+		int offset = append(PUT, notification.toBytes());
+		if (offset < 0) {
+			return false;
+		}
+		if (!index.containsKey(notification.getId())) {
+			index.put(notification.getId(), offset);
+			for (Map.Entry<Key, Groups> e : groupings.entrySet()) {
+				e.getValue().add(notification.getId(),
+						e.getKey().of(notification));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Acknowledges the delivery of a notification, which won't be replayed
+	 * unless it is appended again.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @return false if the outbox is full
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public synchronized boolean ack(KarotzNotification notification)
+			throws IOException {
+		if (append(ACK, toBytes(notification.getId())) < 0) {
+			return false;
+		}
+		if (index.remove(notification.getId()) != null) {
+			for (Groups groups : groupings.values()) {
+				groups.remove(notification.getId());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the oldest pending notifications. A notification appended several
+	 * times (e.g. by the same build) is returned once.
+	 *
+	 * @param limit
+	 *            maximum number of notifications to read
+	 * @param exclude
+	 *            ids of the notifications to skip
+	 * @return the notifications, oldest first
+	 */
+	public synchronized List<KarotzNotification> pending(int limit,
+			Set<String> exclude) {
+		return pending(limit, exclude, null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the oldest pending notifications of each group, so that a group
+	 * with many notifications does not hide the others.
+	 *
+	 * @param limit
+	 *            maximum number of notifications to read
+	 * @param exclude
+	 *            ids of the notifications to skip
+	 * @param key
+	 *            the grouping, null for a single group
+	 * @param perKey
+	 *            maximum number of notifications to read for each group
+	 * @return the notifications, oldest first
+	 */
+	public synchronized List<KarotzNotification> pending(int limit,
+			Set<String> exclude, Key key, int perKey) {
+		checkOpen();
+		Groups groups = key != null ? getGroups(key) : null;
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		List<KarotzNotification> notifications = new ArrayList<KarotzNotification>();
+		for (Map.Entry<String, Integer> e : index.entrySet()) {
+			if (notifications.size() >= limit) {
+				break;
+			}
+			if (exclude.contains(e.getKey())) {
+				continue;
+			}
+			// only the notifications returned are read from the journal
+			if (groups != null
+					&& increment(counts, groups.of(e.getKey())) > perKey) {
+				continue;
+			}
+			notifications.add(read(e.getValue()).getNotification());
+		}
+		return notifications;
+	}
+
+	/**
+	 * Reads all the pending notifications of a group.
+	 *
+	 * @param key
+	 *            the grouping
+	 * @param group
+	 *            the group
+	 * @return the notifications, oldest first
+	 */
+	public synchronized List<KarotzNotification> pending(Key key, String group) {
+		checkOpen();
+		List<KarotzNotification> notifications = new ArrayList<KarotzNotification>();
+		for (String id : getGroups(key).ids(group)) {
+			notifications.add(read(index.get(id)).getNotification());
+		}
+		return notifications;
+	}
+
+	/**
+	 * Reads the oldest pending notifications of the groups having more than a
+	 * given number of pending notifications.
+	 *
+	 * @param key
+	 *            the grouping
+	 * @param cap
+	 *            number of pending notifications allowed for each group
+	 * @param limit
+	 *            maximum number of notifications to read
+	 * @return the notifications in excess, oldest first
+	 */
+	public synchronized List<KarotzNotification> overflow(Key key, int cap,
+			int limit) {
+		checkOpen();
+		List<Integer> offsets = new ArrayList<Integer>();
+		for (Set<String> ids : getGroups(key).ids.values()) {
+			int excess = ids.size() - cap;
+			for (String id : ids) {
+				if (excess-- <= 0) {
+					break;
+				}
+				offsets.add(index.get(id));
+			}
+		}
+		// the records are in the order they were appended
+		Collections.sort(offsets);
+		List<KarotzNotification> notifications = new ArrayList<KarotzNotification>();
+		for (int offset : offsets.subList(0, Math.min(limit, offsets.size()))) {
+			notifications.add(read(offset).getNotification());
+		}
+		return notifications;
+	}
+
+	/**
+	 * Whether a notification is pending: appended, and not acknowledged since.
+	 *
+	 * @param notification
+	 *            the notification
+	 * @return true if the notification is pending
+	 */
+	public synchronized boolean isPending(KarotzNotification notification) {
+		return index.containsKey(notification.getId());
+	}
+
+	/**
+	 * Reads the oldest pending notification.
+	 *
+	 * @return the notification, or null if none is pending
+	 */
+	public synchronized KarotzNotification oldestPending() {
+		checkOpen();
+		if (index.isEmpty()) {
+			return null;
+		}
+		return read(index.values().iterator().next()).getNotification();
+	}
+
+	/**
+	 * Counts the pending notifications.
+	 *
+	 * @return number of pending notifications
+	 */
+	public synchronized int getPendingCount() {
+		return index.size();
+	}
+
+	/**
+	 * Gets the number of bytes used by the journal.
+	 *
+	 * @return used bytes
+	 */
+	public synchronized int getSize() {
+		return position;
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Closes the outbox.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be closed
+	 */
+	public synchronized void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		buffer.force();
+		unmap(buffer);
+		buffer = null;
+		raf.close();
+	}
+
+	/**
+	 * Fails rather than reading an unmapped journal, which would crash the
+	 * JVM.
+	 */
+	private void checkOpen() {
+		if (buffer == null) {
+			throw new IllegalStateException(file + " is closed");
+		}
+	}
+
+	private File getOldFile() {
+		return new File(file.getPath() + ".old");
+	}
+
+	/**
+	 * Gets the pending notifications of each group, reading the journal the
+	 * first time the notifications are grouped that way.
+	 */
+	private Groups getGroups(Key key) {
+		Groups groups = groupings.get(key);
+		if (groups == null) {
+			groups = new Groups();
+			for (Map.Entry<String, Integer> e : index.entrySet()) {
+				groups.add(e.getKey(),
+						key.of(read(e.getValue()).getNotification()));
+			}
+			groupings.put(key, groups);
+		}
+		return groups;
+	}
+
+	private void open(int size) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		capacity = size;
+	}
+
+	/**
+	 * Finds the end of the journal, clears what follows it, and rebuilds the
+	 * index of the pending notifications.
+	 */
+	private void recover() {
+		position = 0;
+		index.clear();
+		groupings.clear();
+		for (Record r = readUnchecked(0); r != null; r = readUnchecked(r.end)) {
+			position = r.end;
+			if (r.type == ACK) {
+				index.remove(fromBytes(r.payload));
+			} else if (r.getNotification() != null
+					&& !index.containsKey(r.getNotification().getId())) {
+				index.put(r.getNotification().getId(), r.start);
+			}
+		}
+		boolean torn = false;
+		for (int i = position; i < capacity; i++) {
+			if (buffer.get(i) != 0) {
+				buffer.put(i, (byte) 0);
+				torn = true;
+			}
+		}
+		if (torn) {
+			LOGGER.log(Level.WARNING, "Discarded a torn record at {0} in {1}",
+					new Object[] { position, file });
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @return the offset of the record, or -1 if the journal is full
+	 */
+	private int append(byte type, byte[] payload) throws IOException {
+		if (buffer == null) {
+			throw new IOException(file + " is closed");
+		}
+		int size = HEADER_SIZE + 1 + payload.length;
+		if (position + size > capacity && !makeRoom(size)) {
+			LOGGER.log(Level.WARNING, "{0} is full", file);
+			return -1;
+		}
+		byte[] body = new byte[payload.length + 1];
+		body[0] = type;
+		System.arraycopy(payload, 0, body, 1, payload.length);
+
+		ByteBuffer b = buffer.duplicate();
+		b.position(position + HEADER_SIZE);
+		b.put(body);
+		buffer.putLong(position + 4, crc(body));
+		// the length is written last: until then, the record does not exist
+		buffer.putInt(position, body.length);
+		buffer.force();
+		int offset = position;
+		position += size;
+		return offset;
+	}
+
+	private boolean makeRoom(int size) throws IOException {
+		compact(capacity);
+		int newCapacity = capacity;
+		while (position + size > newCapacity && newCapacity < maxCapacity) {
+			newCapacity = (int) Math.min(maxCapacity, newCapacity * 2L);
+		}
+		if (newCapacity > capacity) {
+			compact(newCapacity);
+		}
+		return position + size <= capacity;
+	}
+
+	/**
+	 * Rewrites the pending notifications into a new journal, which then
+	 * replaces the current one.
+	 */
+	private void compact(int newCapacity) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		if (tmp.exists() && !tmp.delete()) {
+			throw new IOException("Failed to delete " + tmp);
+		}
+
+		int written = 0;
+		Map<String, Integer> offsets = new LinkedHashMap<String, Integer>();
+		RandomAccessFile tmpRaf = new RandomAccessFile(tmp, "rw");
+		try {
+			MappedByteBuffer target = tmpRaf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+			for (Map.Entry<String, Integer> e : index.entrySet()) {
+				Record r = read(e.getValue());
+				ByteBuffer b = buffer.duplicate();
+				b.position(r.start);
+				b.limit(r.end);
+				target.position(written);
+				target.put(b);
+				offsets.put(e.getKey(), written);
+				written += r.end - r.start;
+			}
+			target.force();
+			unmap(target);
+		} finally {
+			tmpRaf.close();
+		}
+
+		// a file still mapped can be neither renamed nor deleted on Windows;
+		// nobody else reads it, the monitor being held
+		MappedByteBuffer current = buffer;
+		buffer = null;
+		unmap(current);
+		raf.close();
+		if (!replace(tmp)) {
+			open((int) Math.max(capacity, file.length()));
+			recover();
+			throw new IOException("Failed to replace " + file);
+		}
+		open(newCapacity);
+		position = written;
+		index.clear();
+		index.putAll(offsets);
+		LOGGER.log(Level.FINE, "Compacted {0}: {1} pending notifications",
+				new Object[] { file, index.size() });
+	}
+
+	/**
+	 * Replaces the journal with a new one, keeping the current one until the
+	 * new one is in place, so that the outbox survives a failure at any step.
+	 *
+	 * @return false if the current journal is still in place
+	 */
+	private boolean replace(File tmp) {
+		if (tmp.renameTo(file)) {
+			return true;
+		}
+		// e.g. on Windows, a file cannot be renamed over another one
+		File old = getOldFile();
+		if (old.exists() && !old.delete()) {
+			return false;
+		}
+		if (!file.renameTo(old)) {
+			return false;
+		}
+		if (!tmp.renameTo(file)) {
+			if (!old.renameTo(file)) {
+				// restored when the outbox is opened again
+				LOGGER.log(Level.SEVERE, "The outbox has been left in {0}",
+						old);
+			}
+			return false;
+		}
+		if (!old.delete()) {
+			LOGGER.log(Level.WARNING, "Failed to delete {0}", old);
+		}
+		return true;
+	}
+
+	private static int increment(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		int next = count != null ? count + 1 : 1;
+		counts.put(key, next);
+		return next;
+	}
+
+	/**
+	 * Unmaps a buffer now, rather than whenever it is garbage collected. This
+	 * is best effort: the cleaner is not accessible on every JVM.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method getCleaner = buffer.getClass().getMethod("cleaner");
+			getCleaner.setAccessible(true);
+			Object cleaner = getCleaner.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.FINE, "Failed to unmap a journal", e);
+		}
+	}
+
+	private Record read(int offset) {
+		return offset < position ? readUnchecked(offset) : null;
+	}
+
+	private Record readUnchecked(int offset) {
+		if (offset + HEADER_SIZE > capacity) {
+			return null;
+		}
+		int length = buffer.getInt(offset);
+		if (length <= 0 || length > capacity - offset - HEADER_SIZE) {
+			return null;
+		}
+		byte[] body = new byte[length];
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset + HEADER_SIZE);
+		b.get(body);
+		if (crc(body) != buffer.getLong(offset + 4)) {
+			return null;
+		}
+		byte[] payload = new byte[length - 1];
+		System.arraycopy(body, 1, payload, 0, payload.length);
+		return new Record(offset, offset + HEADER_SIZE + length, body[0],
+				payload);
+	}
+
+	private static long crc(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return crc.getValue();
+	}
+
+	private static byte[] toBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String fromBytes(byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Pending notifications of each group, for a grouping.
+	 */
+	private static final class Groups {
+
+		/**
+		 * Group of each pending notification
+		 */
+		private final Map<String, String> groups = new HashMap<String, String>();
+
+		/**
+		 * Pending notifications of each group, oldest first
+		 */
+		private final Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
+
+		void add(String id, String group) {
+			groups.put(id, group);
+			Set<String> set = ids.get(group);
+			if (set == null) {
+				set = new LinkedHashSet<String>();
+				ids.put(group, set);
+			}
+			set.add(id);
+		}
+
+		void remove(String id) {
+			String group = groups.remove(id);
+			Set<String> set = ids.get(group);
+			if (set != null) {
+				set.remove(id);
+				if (set.isEmpty()) {
+					ids.remove(group);
+				}
+			}
+		}
+
+		String of(String id) {
+			return groups.get(id);
+		}
+
+		Set<String> ids(String group) {
+			Set<String> set = ids.get(group);
+			return set != null ? set : Collections.<String> emptySet();
+		}
+	}
+
+	private static final class Record {
+
+		private final int start;
+
+		private final int end;
+
+		private final byte type;
+
+		private final byte[] payload;
+
+		Record(int start, int end, byte type, byte[] payload) {
+			this.start = start;
+			this.end = end;
+			this.type = type;
+			this.payload = payload;
+		}
+
+		private KarotzNotification notification;
+
+		KarotzNotification getNotification() {
+			if (notification == null) {
+				try {
+					notification = KarotzNotification.fromBytes(payload);
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING,
+							"Skipping an unreadable notification", e);
+				}
+			}
+			return notification;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redelivers the notifications left in the outbox, e.g. during an outage of
+ * the Karotz API or before a restart of Jenkins.
+ */
+@Extension
+public class KarotzOutboxWork extends AsyncPeriodicWork {
+
+	public KarotzOutboxWork() {
+		super("Karotz outbox");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return TimeUnit.MINUTES.toMillis(1);
+	}
+
+	@Override
+	public long getInitialDelay() {
+		// replay soon after a restart
+		return TimeUnit.SECONDS.toMillis(10);
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException,
+			InterruptedException {
+		KarotzDispatcher dispatcher = KarotzDispatcher.get();
+		int pending = dispatcher.getOutbox().getPendingCount();
+		if (pending > 0) {
+			listener.getLogger().println(
+					"Redelivering " + pending + " Karotz notifications");
+			// delivered by the notifications thread, never concurrently
+			dispatcher.scheduleDrain();
+		}
+	}
+}
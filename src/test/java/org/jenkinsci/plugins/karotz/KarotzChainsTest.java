@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Cause.UpstreamCause;
+import hudson.model.Result;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test for KarotzChains
+ */
+public class KarotzChainsTest {
+
+	private final Map<AbstractBuild<?, ?>, Integer> downstream = new HashMap<AbstractBuild<?, ?>, Integer>();
+
+	private final KarotzChains chains = new KarotzChains() {
+		@Override
+		int countDownstream(AbstractBuild<?, ?> build) {
+			Integer count = downstream.get(build);
+			return count != null ? count : 0;
+		}
+	};
+
+	private final KarotzConfig config = mock(KarotzConfig.class);
+
+	@After
+	public void tearDown() {
+		chains.clear();
+	}
+
+	/**
+	 * Test of offer method for a build on its own, of class KarotzChains.
+	 */
+	@Test
+	public void testOfferAlone() {
+		when(config.getChainTimeout()).thenReturn(60000L);
+		AbstractBuild<?, ?> build = build("alone", 1, Result.SUCCESS, null);
+		chains.started(build, config);
+		assertEquals(0, chains.size());
+		assertTrue(chains.offer(build, KarotzEvent.START));
+		assertTrue(chains.offer(build, KarotzEvent.SUCCESS));
+		chains.completed(build, config);
+		assertEquals(0, chains.size());
+	}
+
+	/**
+	 * Test of offer method for a chain failing downstream, of class
+	 * KarotzChains.
+	 */
+	@Test
+	public void testOfferChain() {
+		when(config.getChainTimeout()).thenReturn(60000L);
+		AbstractBuild<?, ?> compile = build("compile", 7, Result.SUCCESS, null);
+		downstream.put(compile, 2);
+		chains.started(compile, config);
+		assertTrue(chains.offer(compile, KarotzEvent.START));
+		// held until the end of the chain
+		assertFalse(chains.offer(compile, KarotzEvent.SUCCESS));
+		chains.completed(compile, config);
+		assertEquals(1, chains.size());
+
+		UpstreamCause cause = cause("compile", 7);
+		AbstractBuild<?, ?> test = build("test", 3, Result.FAILURE, cause);
+		AbstractBuild<?, ?> deploy = build("deploy", 5, Result.SUCCESS, cause);
+		chains.started(test, config);
+		chains.started(deploy, config);
+		assertFalse(chains.offer(test, KarotzEvent.START));
+		assertEquals("compile#7", KarotzChains.getChainId(test));
+
+		// the first failure is announced, the rest of the chain is silent
+		assertTrue(chains.offer(test, KarotzEvent.FAILURE));
+		chains.completed(test, config);
+		assertFalse(chains.offer(deploy, KarotzEvent.SUCCESS));
+		chains.completed(deploy, config);
+		assertEquals(0, chains.size());
+	}
+
+	/**
+	 * Test of restore method, of class KarotzChains.
+	 */
+	@Test
+	public void testRestore() throws Exception {
+		when(config.getChainTimeout()).thenReturn(60000L);
+		when(config.isCollapseChains()).thenReturn(true);
+		File file = File.createTempFile("karotz-chains", ".xml");
+		file.delete();
+		chains.restore(file, config);
+
+		AbstractBuild<?, ?> compile = build("compile", 8, Result.SUCCESS, null);
+		downstream.put(compile, 2);
+		chains.started(compile, config);
+		chains.completed(compile, config);
+		UpstreamCause cause = cause("compile", 8);
+		AbstractBuild<?, ?> test = build("test", 4, Result.FAILURE, cause);
+		chains.started(test, config);
+		assertTrue(chains.offer(test, KarotzEvent.FAILURE));
+		assertTrue(file.exists());
+
+		// the chain survives the restart, the running test is lost
+		KarotzChains restored = new KarotzChains();
+		restored.restore(file, config);
+		try {
+			assertEquals(1, restored.size());
+			AbstractBuild<?, ?> deploy = build("deploy", 6, Result.SUCCESS, cause);
+			restored.started(deploy, config);
+			assertFalse(restored.offer(deploy, KarotzEvent.SUCCESS));
+			restored.completed(deploy, config);
+			assertEquals(0, restored.size());
+		} finally {
+			restored.clear();
+		}
+		assertFalse(file.exists());
+	}
+
+	private static AbstractBuild<?, ?> build(String jobName, int number, Result result,
+			UpstreamCause cause) {
+		AbstractProject<?, ?> project = mock(AbstractProject.class);
+		when(project.getFullName()).thenReturn(jobName);
+		AbstractBuild<?, ?> build = mock(AbstractBuild.class);
+		doReturn(project).when(build).getParent();
+		when(build.getNumber()).thenReturn(number);
+		when(build.getResult()).thenReturn(result);
+		when(build.getCause(UpstreamCause.class)).thenReturn(cause);
+		return build;
+	}
+
+	private static UpstreamCause cause(String jobName, int number) {
+		UpstreamCause cause = mock(UpstreamCause.class);
+		when(cause.getUpstreamProject()).thenReturn(jobName);
+		when(cause.getUpstreamBuild()).thenReturn(number);
+		when(cause.getUpstreamCauses()).thenReturn(Collections.<Cause>emptyList());
+		return cause;
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.karotz.action.KarotzAction;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Stress test of the session handling of KarotzClient, against a stand-in
+ * of the Karotz API.
+ */
+public class KarotzClientStressTest {
+
+	private static final int THREADS = 16;
+
+	private static final int ITERATIONS = 200;
+
+	private final StandIn standIn = new StandIn();
+
+	@After
+	public void tearDown() throws Exception {
+		standIn.stopInteractiveModeNow();
+	}
+
+	/**
+	 * Test of startInteractiveMode and stopInteractiveMode methods from many
+	 * threads, of class KarotzClient.
+	 */
+	@Test
+	public void testConcurrentSessions() throws Exception {
+		final CountDownLatch go = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS; t++) {
+			futures.add(threads.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					go.await();
+					for (int i = 0; i < ITERATIONS; i++) {
+						standIn.startInteractiveMode();
+						try {
+							new Ping(i % 3).execute(standIn);
+							new Ping(0).execute(standIn);
+						} finally {
+							standIn.stopInteractiveMode();
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		go.countDown();
+		for (Future<Void> future : futures) {
+			// rethrows the failure of an action, e.g. on a lost session
+			future.get();
+		}
+		threads.shutdown();
+
+		// the last stop is scheduled once the actions are over
+		long deadline = System.currentTimeMillis() + 10000;
+		while (standIn.isInteractive() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(standIn.isInteractive());
+		assertEquals(KarotzClient.State.IDLE, KarotzClient.getState());
+		assertEquals(2 * THREADS * ITERATIONS, standIn.actions.get());
+		assertEquals(0, standIn.lost.get());
+		assertEquals(0, standIn.doubleStops.get());
+		assertTrue(standIn.started.get() >= 1);
+		assertEquals(standIn.started.get(), standIn.stopped.get());
+		assertTrue(standIn.open.isEmpty());
+	}
+
+	/**
+	 * Test of executeBatch method from many threads, of class KarotzClient.
+	 */
+	@Test
+	public void testConcurrentBatches() throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		List<Future<KarotzBatchResult>> futures = new ArrayList<Future<KarotzBatchResult>>();
+		for (int t = 0; t < THREADS * 10; t++) {
+			futures.add(threads.submit(new Callable<KarotzBatchResult>() {
+				public KarotzBatchResult call() throws Exception {
+					return standIn.executeBatch(Collections.nCopies(5, new Ping(1)),
+							new KarotzContext(null, null, null, standIn));
+				}
+			}));
+		}
+		for (Future<KarotzBatchResult> future : futures) {
+			KarotzBatchResult result = future.get();
+			assertTrue(result.toString(), result.isSuccessful());
+			assertEquals(5, result.count(KarotzBatchResult.Status.SENT));
+			assertEquals(5, result.getDuration());
+		}
+		threads.shutdown();
+		assertEquals(0, standIn.lost.get());
+		assertEquals(0, standIn.doubleStops.get());
+	}
+
+	/**
+	 * Test of executeBatch method for channels running alongside, of class
+	 * KarotzClient.
+	 */
+	@Test
+	public void testConcurrentChannels() throws Exception {
+		KarotzContext context = new KarotzContext(null, null, null, standIn);
+		long start = standIn.getActionsStart();
+		standIn.executeBatch(Collections.nCopies(2, new Ping(100)), context, start);
+		standIn.executeBatch(Collections.nCopies(1, new Ping(300)), context, start);
+		// the longest channel, not the sum of the channels
+		assertEquals(start + 300, KarotzClient.getMinEndingTime());
+	}
+
+	/**
+	 * Test of restoreSession method, of class KarotzClient.
+	 */
+	@Test
+	public void testRestoreSession() throws Exception {
+		MemoryStore store = new MemoryStore();
+		KarotzClient.setSessionStore(store);
+		try {
+			long now = System.currentTimeMillis();
+			standIn.open.add("restored");
+			store.session = new KarotzSessionStore.Session("stress-test", "restored", now + 1000);
+			standIn.restoreSession();
+			assertEquals("restored", standIn.getInteractiveId());
+			// kept open for the next notification, from now on
+			assertTrue(KarotzClient.getMinEndingTime() > now + 30000);
+			assertEquals("restored", store.session.getInteractiveId());
+			standIn.stopInteractiveModeNow();
+			assertEquals(null, store.session);
+
+			// the Karotz API does not know the session anymore
+			store.session = new KarotzSessionStore.Session("stress-test", "expired", now + 1000);
+			standIn.restoreSession();
+			assertFalse(standIn.isInteractive());
+			assertEquals(KarotzClient.State.IDLE, KarotzClient.getState());
+			assertEquals(null, store.session);
+		} finally {
+			KarotzClient.setSessionStore(null);
+		}
+	}
+
+	/**
+	 * Test of prewarm method, of class KarotzClient.
+	 */
+	@Test
+	public void testPrewarm() throws Exception {
+		standIn.prewarm(200);
+		assertTrue(standIn.isInteractive());
+		assertEquals(KarotzClient.State.STOP_SCHEDULED, KarotzClient.getState());
+
+		// the notification finds the session open
+		standIn.startInteractiveMode();
+		new Ping(0).execute(standIn);
+		standIn.stopInteractiveMode();
+		assertEquals(1, standIn.started.get());
+
+		// kept open until the end of the warm period, then stopped
+		Thread.sleep(50);
+		assertTrue(standIn.isInteractive());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (standIn.isInteractive() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(standIn.isInteractive());
+		assertEquals(1, standIn.stopped.get());
+	}
+
+	/**
+	 * Test of startInteractiveMode method while the session is being opened,
+	 * of class KarotzClient.
+	 */
+	@Test
+	public void testSlowStart() throws Exception {
+		standIn.startDelay = 500;
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int t = 0; t < 2; t++) {
+			futures.add(threads.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					standIn.startInteractiveMode();
+					return null;
+				}
+			}));
+		}
+		Thread.sleep(100);
+
+		// the session state is not locked while waiting for the Karotz API
+		long before = System.currentTimeMillis();
+		assertEquals(KarotzClient.State.OPENING, KarotzClient.getState());
+		standIn.addActionDuration(0);
+		assertTrue(System.currentTimeMillis() - before < 250);
+
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		threads.shutdown();
+		// both notifications share the session opened by the first one
+		assertEquals(1, standIn.started.get());
+		assertEquals(KarotzClient.State.ACTIVE, KarotzClient.getState());
+	}
+
+	/**
+	 * Test of stopInteractiveModeNow method when the Karotz refuses the stop,
+	 * of class KarotzClient.
+	 */
+	@Test
+	public void testFailedStop() throws Exception {
+		standIn.startInteractiveMode();
+		standIn.refuseStops = true;
+		try {
+			standIn.stopInteractiveModeNow();
+			fail("the stop has been refused");
+		} catch (KarotzException e) {
+			assertEquals("ERROR", e.getCode());
+		}
+		// the session is given up all the same, the next one starts afresh
+		assertFalse(standIn.isInteractive());
+		assertEquals(KarotzClient.State.IDLE, KarotzClient.getState());
+		standIn.refuseStops = false;
+		standIn.startInteractiveMode();
+		assertEquals(2, standIn.started.get());
+	}
+
+	/**
+	 * Client answering the requests itself, checking that the actions are
+	 * sent in an open session and that sessions are stopped once.
+	 */
+	private static class StandIn extends KarotzClient {
+
+		private static final Pattern INTERACTIVE_ID = Pattern.compile("interactiveid=([^&]*)");
+
+		final Set<String> open = Collections.synchronizedSet(new HashSet<String>());
+
+		final AtomicInteger started = new AtomicInteger();
+
+		final AtomicInteger stopped = new AtomicInteger();
+
+		final AtomicInteger actions = new AtomicInteger();
+
+		final AtomicInteger lost = new AtomicInteger();
+
+		final AtomicInteger doubleStops = new AtomicInteger();
+
+		volatile boolean refuseStops;
+
+		volatile long startDelay;
+
+		StandIn() {
+			super("apiKey", "secretKey", "stress-test");
+		}
+
+		@Override
+		public String doRequest(String url) throws KarotzException {
+			if (url.contains("/karotz/start")) {
+				sleep(startDelay);
+				String id = "session" + started.incrementAndGet();
+				open.add(id);
+				return "<VoosMsg><interactiveMode><interactiveId>" + id
+						+ "</interactiveId></interactiveMode></VoosMsg>";
+			}
+			Matcher matcher = INTERACTIVE_ID.matcher(url);
+			String id = matcher.find() ? matcher.group(1) : null;
+			if (url.contains("action=stop")) {
+				if (refuseStops) {
+					return code("ERROR");
+				}
+				if (!open.remove(id)) {
+					doubleStops.incrementAndGet();
+					return code("NOT_CONNECTED");
+				}
+				stopped.incrementAndGet();
+				return code("OK");
+			}
+			if (!open.contains(id)) {
+				lost.incrementAndGet();
+				return code("NOT_CONNECTED");
+			}
+			actions.incrementAndGet();
+			return code("OK");
+		}
+
+		private static void sleep(long millis) throws KarotzException {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				throw new KarotzException(e);
+			}
+		}
+
+		private static String code(String code) {
+			return "<VoosMsg><response><code>" + code + "</code></response></VoosMsg>";
+		}
+	}
+
+	/**
+	 * Store keeping the session in memory.
+	 */
+	private static class MemoryStore extends KarotzSessionStore {
+
+		volatile Session session;
+
+		MemoryStore() {
+			super(null);
+		}
+
+		@Override
+		public Session load() {
+			return session;
+		}
+
+		@Override
+		public void save(Session session) {
+			this.session = session;
+		}
+
+		@Override
+		public void clear() {
+			session = null;
+		}
+	}
+
+	/**
+	 * Action doing nothing, lasting a few milliseconds.
+	 */
+	private static class Ping extends KarotzAction {
+
+		private final long duration;
+
+		Ping(long duration) {
+			this.duration = duration;
+		}
+
+		@Override
+		public String getBaseUrl() {
+			return "http://api.karotz.com/api/karotz/ping";
+		}
+
+		@Override
+		public Map<String, String> getParameters() {
+			return new HashMap<String, String>();
+		}
+
+		@Override
+		public long getDuration() {
+			return duration;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for KarotzDeviceLease
+ */
+public class KarotzDeviceLeaseTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("karotz", ".lease");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Test of acquire method while waiting, of class KarotzDeviceLease.
+	 */
+	@Test
+	public void testWaitOutsideMonitor() throws Exception {
+		KarotzDeviceLease a = new KarotzDeviceLease(file, "a", KarotzDeviceLease.DEFAULT_TTL);
+		final KarotzDeviceLease b = new KarotzDeviceLease(file, "b", KarotzDeviceLease.DEFAULT_TTL);
+		assertNull(a.acquire(0));
+
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					b.acquire(1000);
+				} catch (KarotzException e) {
+					// the lease is held by a
+				}
+			}
+		};
+		waiter.start();
+		Thread.sleep(100);
+		// the other callers of the lease do not wait for the waiter
+		long start = System.currentTimeMillis();
+		assertFalse(b.isHeld());
+		assertTrue(System.currentTimeMillis() - start < 200);
+		waiter.join();
+		assertFalse(b.isHeld());
+	}
+
+	/**
+	 * Test of acquire and release methods, of class KarotzDeviceLease.
+	 */
+	@Test
+	public void testHandOver() throws Exception {
+		KarotzDeviceLease a = new KarotzDeviceLease(file, "a", KarotzDeviceLease.DEFAULT_TTL);
+		KarotzDeviceLease b = new KarotzDeviceLease(file, "b", KarotzDeviceLease.DEFAULT_TTL);
+
+		assertNull(a.acquire(0));
+		assertTrue(a.isHeld());
+		assertFalse(a.hasWaiters());
+		try {
+			b.acquire(300);
+			fail("the lease is held by a");
+		} catch (KarotzException e) {
+			assertEquals("The Karotz is leased by a", e.getMessage());
+		}
+		assertTrue(a.hasWaiters());
+
+		// a hands its session over to b
+		a.release("session");
+		assertFalse(a.isHeld());
+		assertEquals("session", b.acquire(0));
+
+		// b stops the session, nothing to hand over
+		b.release(null);
+		assertNull(a.acquire(0));
+	}
+
+	/**
+	 * Test of the expiry of a lease, of class KarotzDeviceLease.
+	 */
+	@Test
+	public void testExpiry() throws Exception {
+		KarotzDeviceLease crashed = new KarotzDeviceLease(file, "crashed", 100);
+		KarotzDeviceLease other = new KarotzDeviceLease(file, "other", 100);
+
+		crashed.acquire(0);
+		crashed.renew(System.currentTimeMillis());
+		assertNull(other.acquire(2000));
+		assertTrue(other.isHeld());
+
+		// the expired holder notices it has lost the lease
+		crashed.renew(System.currentTimeMillis());
+		assertFalse(crashed.isHeld());
+	}
+
+	/**
+	 * Test of reclaim method, of class KarotzDeviceLease.
+	 */
+	@Test
+	public void testReclaim() throws Exception {
+		KarotzDeviceLease a = new KarotzDeviceLease(file, "a", KarotzDeviceLease.DEFAULT_TTL);
+		KarotzDeviceLease b = new KarotzDeviceLease(file, "b", KarotzDeviceLease.DEFAULT_TTL);
+
+		// b adopts the session, a has nothing to stop
+		a.acquire(0);
+		a.release("session1");
+		assertEquals("session1", b.acquire(0));
+		assertFalse(a.reclaim("session1"));
+		b.release(null);
+
+		// b gave up waiting, a takes the lease back to stop the session
+		a.acquire(0);
+		a.release("session2");
+		assertTrue(a.reclaim("session2"));
+		assertTrue(a.isHeld());
+		assertNull(a.acquire(0));
+	}
+}
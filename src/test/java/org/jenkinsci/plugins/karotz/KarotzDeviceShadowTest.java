@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for KarotzDeviceShadow
+ */
+public class KarotzDeviceShadowTest {
+
+	/**
+	 * Test of isLed method, of class KarotzDeviceShadow.
+	 */
+	@Test
+	public void testLed() {
+		KarotzDeviceShadow shadow = new KarotzDeviceShadow(KarotzDeviceShadow.DEFAULT_TTL);
+		assertFalse(shadow.isLed(KarotzDeviceShadow.LED_OFF, null));
+
+		shadow.setLed(KarotzDeviceShadow.LED_LIGHT, "0000FF");
+		assertTrue(shadow.isLed(KarotzDeviceShadow.LED_LIGHT, "0000FF"));
+		assertFalse(shadow.isLed(KarotzDeviceShadow.LED_LIGHT, "FF0000"));
+		assertFalse(shadow.isLed(KarotzDeviceShadow.LED_FADE, "0000FF"));
+
+		shadow.invalidate();
+		assertFalse(shadow.isLed(KarotzDeviceShadow.LED_LIGHT, "0000FF"));
+	}
+
+	/**
+	 * Test of areEars method, of class KarotzDeviceShadow.
+	 */
+	@Test
+	public void testEars() {
+		KarotzDeviceShadow shadow = new KarotzDeviceShadow(KarotzDeviceShadow.DEFAULT_TTL);
+		assertFalse(shadow.areEars(0, 0));
+
+		shadow.setEars(0, 0);
+		assertTrue(shadow.areEars(0, 0));
+		shadow.setEars(5, null);
+		assertTrue(shadow.areEars(5, 0));
+		assertTrue(shadow.areEars(5, null));
+		assertFalse(shadow.areEars(0, null));
+
+		shadow.invalidateEars();
+		assertFalse(shadow.areEars(5, 0));
+	}
+
+	/**
+	 * Test of the expiry of the state, of class KarotzDeviceShadow.
+	 */
+	@Test
+	public void testExpiry() {
+		KarotzDeviceShadow shadow = new KarotzDeviceShadow(0);
+		shadow.setLed(KarotzDeviceShadow.LED_LIGHT, "0000FF");
+		shadow.setEars(0, 0);
+		assertFalse(shadow.isLed(KarotzDeviceShadow.LED_LIGHT, "0000FF"));
+		assertFalse(shadow.areEars(0, 0));
+	}
+
+	/**
+	 * Test of forInstallId method, of class KarotzDeviceShadow.
+	 */
+	@Test
+	public void testForInstallId() {
+		assertSame(KarotzDeviceShadow.forInstallId("a"), KarotzDeviceShadow.forInstallId("a"));
+		assertNotSame(KarotzDeviceShadow.forInstallId("a"), KarotzDeviceShadow.forInstallId("b"));
+	}
+
+	/**
+	 * Test of speak method, of class KarotzDeviceShadow.
+	 */
+	@Test
+	public void testSpeak() {
+		KarotzDeviceShadow shadow = new KarotzDeviceShadow(60000);
+		long before = System.currentTimeMillis();
+		shadow.speak(1000);
+		// queued behind the first sound
+		shadow.speak(500);
+		long until = shadow.getSpeakingUntil();
+		assertTrue(until >= before + 1500 && until <= System.currentTimeMillis() + 1500);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for KarotzEarcons
+ */
+public class KarotzEarconsTest {
+
+	private File dir;
+
+	private KarotzEarcons earcons;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("karotz-earcons", "");
+		dir.delete();
+		dir.mkdirs();
+		earcons = new KarotzEarcons(new File(dir, "cache"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Test of store method, of class KarotzEarcons.
+	 */
+	@Test
+	public void testStore() throws Exception {
+		File clip = new File(dir, "failure.mp3");
+		FileUtils.writeByteArrayToFile(clip, new byte[] {1, 2, 3});
+
+		String name = earcons.store(clip);
+		assertEquals("7037807198c22a7d2b0807371d763779a84fdfcf.mp3", name);
+		assertTrue(KarotzEarcons.isValidName(name));
+		assertArrayEquals(new byte[] {1, 2, 3}, FileUtils.readFileToByteArray(earcons.getFile(name)));
+
+		// the same content is stored only once
+		File copy = new File(dir, "copy.mp3");
+		FileUtils.copyFile(clip, copy);
+		assertEquals(name, earcons.store(copy));
+		assertEquals(1, new File(dir, "cache").list().length);
+	}
+
+	/**
+	 * Test of store method, of class KarotzEarcons.
+	 */
+	@Test
+	public void testStore_TooLarge() throws Exception {
+		File clip = new File(dir, "long.mp3");
+		FileUtils.writeByteArrayToFile(clip, new byte[(int) KarotzEarcons.MAX_SIZE + 1]);
+		try {
+			earcons.store(clip);
+			fail("large clips should be rejected");
+		} catch (IOException e) {
+			assertFalse(new File(dir, "cache").exists());
+		}
+	}
+
+	/**
+	 * Test of isValidName method, of class KarotzEarcons.
+	 */
+	@Test
+	public void testIsValidName() {
+		assertFalse(KarotzEarcons.isValidName(null));
+		assertFalse(KarotzEarcons.isValidName("../config.xml"));
+		assertFalse(KarotzEarcons.isValidName("7037807198c22a7d2b0807371d763779a84fdfcf.mp3.tmp"));
+		assertTrue(KarotzEarcons.isValidName("7037807198c22a7d2b0807371d763779a84fdfcf.mp3"));
+	}
+
+	/**
+	 * Test of resolve method, of class KarotzEarcons.
+	 */
+	@Test
+	public void testResolve() throws Exception {
+		File uploads = new File(dir, "userContent");
+		uploads.mkdirs();
+		File clip = new File(uploads, "failure.mp3");
+
+		assertEquals(clip.getCanonicalFile(), KarotzEarcons.resolve(uploads, "failure.mp3"));
+		assertEquals(clip.getCanonicalFile(), KarotzEarcons.resolve(uploads, clip.getAbsolutePath()));
+		for (String path : new String[] {"../config.xml", new File(dir, "secret.key").getAbsolutePath()}) {
+			try {
+				KarotzEarcons.resolve(uploads, path);
+				fail(path + " should be rejected");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}
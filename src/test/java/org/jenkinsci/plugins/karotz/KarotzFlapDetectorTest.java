@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for KarotzFlapDetector
+ */
+public class KarotzFlapDetectorTest {
+
+	private final KarotzFlapDetector detector = new KarotzFlapDetector();
+
+	/**
+	 * Test of offer method, of class KarotzFlapDetector.
+	 */
+	@Test
+	public void testFlapping() {
+		assertEquals(KarotzEvent.FAILURE, detector.offer("job", KarotzEvent.FAILURE));
+		assertEquals(KarotzEvent.RECOVER, detector.offer("job", KarotzEvent.RECOVER));
+		assertEquals(KarotzEvent.FAILURE, detector.offer("job", KarotzEvent.FAILURE));
+		assertEquals(KarotzEvent.RECOVER, detector.offer("job", KarotzEvent.RECOVER));
+		assertFalse(detector.isFlapping("job"));
+
+		// fourth change
+		assertEquals(KarotzEvent.FLAPPING, detector.offer("job", KarotzEvent.FAILURE));
+		assertTrue(detector.isFlapping("job"));
+		assertNull(detector.offer("job", KarotzEvent.START));
+		assertNull(detector.offer("job", KarotzEvent.RECOVER));
+		assertNull(detector.offer("job", KarotzEvent.SUCCESS));
+
+		// third identical result
+		assertEquals(KarotzEvent.SUCCESS, detector.offer("job", KarotzEvent.SUCCESS));
+		assertFalse(detector.isFlapping("job"));
+		assertEquals(KarotzEvent.START, detector.offer("job", KarotzEvent.START));
+	}
+
+	/**
+	 * Test of offer method, of class KarotzFlapDetector, with steady jobs.
+	 */
+	@Test
+	public void testSteady() {
+		for (int i = 0; i < 20; i++) {
+			assertEquals(KarotzEvent.SUCCESS, detector.offer("ok", KarotzEvent.SUCCESS));
+			assertEquals(KarotzEvent.UNSTABLE, detector.offer("ko", KarotzEvent.UNSTABLE));
+		}
+		// a single change in the window
+		assertEquals(KarotzEvent.FAILURE, detector.offer("ok", KarotzEvent.FAILURE));
+		assertFalse(detector.isFlapping("ok"));
+		assertFalse(detector.isFlapping("ko"));
+
+		detector.offer("ok", KarotzEvent.RECOVER);
+		detector.clear();
+		assertEquals(KarotzEvent.FAILURE, detector.offer("ok", KarotzEvent.FAILURE));
+	}
+}
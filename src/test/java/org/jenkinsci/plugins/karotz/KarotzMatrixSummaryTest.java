@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import hudson.model.Result;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Test for KarotzMatrixSummary
+ */
+public class KarotzMatrixSummaryTest {
+
+	/**
+	 * Test of getSpeech method, of class KarotzMatrixSummary.
+	 */
+	@Test
+	public void testGetSpeech() {
+		assertNull(new KarotzMatrixSummary(Result.SUCCESS, Collections.<String>emptyList(), 4)
+				.getSpeech());
+
+		KarotzMatrixSummary summary = new KarotzMatrixSummary(Result.FAILURE,
+				Arrays.asList("jdk=6,os=linux"), 4);
+		assertEquals("1 of 4 configurations failed: jdk 6 os linux.", summary.getSpeech());
+
+		summary = new KarotzMatrixSummary(Result.UNSTABLE, Arrays.asList("os=a", "os=b", "os=c",
+				"os=d", "os=e"), 40);
+		assertEquals("5 of 40 configurations failed: os a, os b, os c and 2 more.",
+				summary.getSpeech());
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.model.Result;
+
+import org.jenkinsci.plugins.karotz.action.LedColor;
+import org.junit.Test;
+
+/**
+ * Test for KarotzRadiator
+ */
+public class KarotzRadiatorTest {
+
+	/**
+	 * Test of update method, of class KarotzRadiator.
+	 */
+	@Test
+	public void testUpdate() {
+		KarotzRadiator radiator = new KarotzRadiator();
+		assertNull(radiator.getColor());
+
+		assertTrue(radiator.update("a", Result.SUCCESS));
+		assertEquals(LedColor.GREEN, radiator.getColor());
+		assertFalse(radiator.update("b", Result.SUCCESS));
+
+		assertTrue(radiator.update("b", Result.FAILURE));
+		assertEquals(LedColor.RED, radiator.getColor());
+		// still red while b is failing
+		assertFalse(radiator.update("c", Result.UNSTABLE));
+		assertFalse(radiator.update("a", Result.FAILURE));
+		assertFalse(radiator.update("a", Result.SUCCESS));
+
+		assertTrue(radiator.update("b", Result.SUCCESS));
+		assertEquals(LedColor.YELLOW, radiator.getColor());
+		assertTrue(radiator.update("c", Result.SUCCESS));
+		assertEquals(LedColor.GREEN, radiator.getColor());
+
+		// aborted builds do not change the status of their job
+		assertFalse(radiator.update("c", Result.ABORTED));
+		assertEquals(3, radiator.getJobCount());
+	}
+
+	/**
+	 * Test of update method with many jobs, of class KarotzRadiator.
+	 */
+	@Test
+	public void testManyJobs() {
+		KarotzRadiator radiator = new KarotzRadiator();
+		for (int i = 0; i < 10000; i++) {
+			radiator.update("job" + i, i == 5000 ? Result.FAILURE : Result.SUCCESS);
+		}
+		assertEquals(10000, radiator.getJobCount());
+		assertEquals(LedColor.RED, radiator.getColor());
+		assertTrue(radiator.update("job5000", Result.SUCCESS));
+		assertEquals(LedColor.GREEN, radiator.getColor());
+
+		radiator.clear();
+		assertNull(radiator.getColor());
+		assertEquals(0, radiator.getJobCount());
+	}
+
+	/**
+	 * Test of remove method, of class KarotzRadiator.
+	 */
+	@Test
+	public void testRemove() {
+		KarotzRadiator radiator = new KarotzRadiator();
+		radiator.update("a", Result.SUCCESS);
+		radiator.update("b", Result.FAILURE);
+		radiator.update("folder/c", Result.UNSTABLE);
+		radiator.update("folder/d", Result.SUCCESS);
+		radiator.update("e", Result.SUCCESS);
+
+		assertTrue(radiator.remove("b"));
+		assertEquals(LedColor.YELLOW, radiator.getColor());
+		assertFalse(radiator.remove("b"));
+		assertEquals(4, radiator.getJobCount());
+
+		// the jobs of a folder go with it
+		assertTrue(radiator.remove("folder"));
+		assertEquals(LedColor.GREEN, radiator.getColor());
+		assertEquals(2, radiator.getJobCount());
+
+		// the slots moved around are still tracked
+		assertTrue(radiator.update("e", Result.FAILURE));
+		assertTrue(radiator.remove("e"));
+		assertFalse(radiator.update("a", Result.SUCCESS));
+		assertTrue(radiator.update("a", Result.FAILURE));
+		assertEquals(1, radiator.getJobCount());
+	}
+}
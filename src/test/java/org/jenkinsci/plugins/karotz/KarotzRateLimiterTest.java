@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test for KarotzRateLimiter
+ */
+public class KarotzRateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Test of reserve method, of class KarotzRateLimiter.
+	 */
+	@Test
+	public void testReserve_Burst() {
+		KarotzRateLimiter limiter = new KarotzRateLimiter(1, 3, 0);
+
+		assertEquals(0, limiter.reserve(0));
+		assertEquals(0, limiter.reserve(0));
+		assertEquals(0, limiter.reserve(0));
+		assertEquals(SECOND, limiter.reserve(0));
+		assertEquals(2 * SECOND, limiter.reserve(0));
+
+		assertEquals(5, limiter.getGrantedCount());
+		assertEquals(2, limiter.getDelayedCount());
+		assertEquals(2000, limiter.getMaxWaitMillis());
+		assertEquals(3000, limiter.getTotalWaitMillis());
+	}
+
+	/**
+	 * Test of reserve method, of class KarotzRateLimiter.
+	 */
+	@Test
+	public void testReserve_Refill() {
+		KarotzRateLimiter limiter = new KarotzRateLimiter(2, 2, 0);
+
+		assertEquals(0, limiter.reserve(0));
+		assertEquals(0, limiter.reserve(0));
+		assertEquals(SECOND / 2, limiter.reserve(0));
+
+		// an idle limiter never holds more than the burst size
+		long later = 60 * SECOND;
+		assertEquals(0, limiter.reserve(later));
+		assertEquals(0, limiter.reserve(later));
+		assertEquals(SECOND / 2, limiter.reserve(later));
+	}
+
+	/**
+	 * Test of tryReserve method, of class KarotzRateLimiter.
+	 */
+	@Test
+	public void testTryReserve() {
+		KarotzRateLimiter limiter = new KarotzRateLimiter(1, 2, 0);
+
+		assertEquals(0, limiter.tryReserve(0));
+		assertEquals(0, limiter.tryReserve(0));
+		// a refused request does not take the permit
+		assertEquals(SECOND, limiter.tryReserve(0));
+		assertEquals(SECOND, limiter.tryReserve(0));
+		assertEquals(SECOND / 2, limiter.tryReserve(SECOND / 2));
+		assertEquals(0, limiter.tryReserve(SECOND));
+		assertEquals(SECOND, limiter.tryReserve(SECOND));
+
+		assertEquals(3, limiter.getGrantedCount());
+		assertEquals(4, limiter.getDelayedCount());
+		assertEquals(1000, limiter.getMaxWaitMillis());
+	}
+
+	/**
+	 * Test of availablePermits method, of class KarotzRateLimiter.
+	 */
+	@Test
+	public void testAvailablePermits() {
+		KarotzRateLimiter limiter = new KarotzRateLimiter(1, 4, 0);
+		assertEquals(4, limiter.availablePermits(0), 0.001);
+
+		limiter.reserve(0);
+		limiter.reserve(0);
+		assertEquals(2, limiter.availablePermits(0), 0.001);
+		assertEquals(3, limiter.availablePermits(SECOND), 0.001);
+
+		limiter.reserve(0);
+		limiter.reserve(0);
+		limiter.reserve(0);
+		assertEquals(0, limiter.availablePermits(0), 0.001);
+	}
+
+	/**
+	 * Test of reserve method, of class KarotzRateLimiter.
+	 */
+	@Test
+	public void testReserve_Concurrent() throws Exception {
+		final KarotzRateLimiter limiter = new KarotzRateLimiter(1, 10, 0);
+		final int threads = 8;
+		final int permits = 1000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < permits; j++) {
+						limiter.reserve(0);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		// every permit has been reserved exactly once
+		assertEquals(threads * permits, limiter.getGrantedCount());
+		assertEquals(threads * permits - 10, limiter.getDelayedCount());
+		assertEquals((threads * permits - 10) * 1000L,
+				limiter.getMaxWaitMillis());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hudson.model.Result;
+
+import org.junit.Test;
+
+/**
+ * Test for KarotzRules
+ */
+public class KarotzRulesTest {
+
+	/**
+	 * Test of isAnnounced method, of class KarotzRules.
+	 */
+	@Test
+	public void testIsAnnounced() {
+		KarotzRules rules = KarotzRules.compile("# comment\n"
+				+ "ignore job=sandbox/.*\n"
+				+ "announce event=FAILURE,RECOVER\n"
+				+ "announce event=SUCCESS from=UNSTABLE,NONE\n"
+				+ "announce event=START hours=22-1\n");
+
+		assertTrue(rules.isAnnounced("job", KarotzEvent.FAILURE, Result.SUCCESS, 12));
+		assertFalse(rules.isAnnounced("sandbox/job", KarotzEvent.FAILURE, Result.SUCCESS, 12));
+		assertTrue(rules.isAnnounced("job", KarotzEvent.SUCCESS, Result.UNSTABLE, 12));
+		assertTrue(rules.isAnnounced("job", KarotzEvent.SUCCESS, null, 12));
+		assertFalse(rules.isAnnounced("job", KarotzEvent.SUCCESS, Result.SUCCESS, 12));
+		assertTrue(rules.isAnnounced("job", KarotzEvent.START, null, 23));
+		assertTrue(rules.isAnnounced("job", KarotzEvent.START, null, 1));
+		assertFalse(rules.isAnnounced("job", KarotzEvent.START, null, 2));
+		// matching no rule
+		assertFalse(rules.isAnnounced("job", KarotzEvent.UNSTABLE, null, 12));
+	}
+
+	/**
+	 * Test of sampling, of class KarotzRules.
+	 */
+	@Test
+	public void testSample() {
+		KarotzRules rules = KarotzRules.compile("announce event=FAILURE\nannounce sample=3");
+		boolean[] expected = { true, false, false, true, false };
+		for (boolean announced : expected) {
+			assertTrue(announced == rules.isAnnounced("a", KarotzEvent.SUCCESS, null, 0));
+		}
+		// each job is sampled on its own
+		assertTrue(rules.isAnnounced("b", KarotzEvent.SUCCESS, null, 0));
+		assertTrue(rules.isAnnounced("a", KarotzEvent.FAILURE, null, 0));
+	}
+
+	/**
+	 * Test of sampling, of class KarotzRules, when the rules are compiled
+	 * again.
+	 */
+	@Test
+	public void testSample_Recompiled() {
+		KarotzRules rules = KarotzRules.compile("announce job=resampled sample=2");
+		assertTrue(rules.isAnnounced("resampled", KarotzEvent.SUCCESS, null, 0));
+
+		// saving the configuration again does not start the count over
+		rules = KarotzRules.compile("# saved again\nannounce  job=resampled   sample=2\n");
+		assertFalse(rules.isAnnounced("resampled", KarotzEvent.SUCCESS, null, 0));
+		assertTrue(rules.isAnnounced("resampled", KarotzEvent.SUCCESS, null, 0));
+
+		// a changed rule counts on its own
+		rules = KarotzRules.compile("announce job=resampled sample=3");
+		assertTrue(rules.isAnnounced("resampled", KarotzEvent.SUCCESS, null, 0));
+	}
+
+	/**
+	 * Test of compile method, of class KarotzRules.
+	 */
+	@Test
+	public void testCompile() {
+		assertSame(KarotzRules.ALL_BUILDS, KarotzRules.compile(null));
+		assertTrue(KarotzRules.compile(" \n# none\n").isAnnounced("job", KarotzEvent.START, null, 0));
+		// an ignore rule does not sample
+		assertFalse(KarotzRules.compile("ignore sample=x").isAnnounced("job", KarotzEvent.START, null, 0));
+		String[] invalid = { "notify", "announce event=BROKEN", "announce hours=8", "announce job=(",
+				"announce sample=0", "announce from=LOST" };
+		for (String rule : invalid) {
+			try {
+				KarotzRules.compile(rule);
+				throw new AssertionError(rule);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.karotz.KarotzClient;
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.junit.Test;
+
+/**
+ * Test for KarotzActionSequence
+ */
+public class KarotzActionSequenceTest {
+
+	private static final KarotzContext CONTEXT = new KarotzContext(null, null, null, new MockClient("installId"));
+
+	/**
+	 * Test of getChannels method, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testGetChannels() {
+		KarotzActionSequence sequence = new KarotzActionSequence();
+		KarotzAction off = new LedOffAction();
+		KarotzAction red = new LedLightAction(LedColor.RED);
+		KarotzAction speak = new SpeakAction("text");
+		KarotzAction ears = new EarAction();
+		sequence.add(off).add(speak).add(red).add(ears);
+
+		Map<KarotzChannel, List<KarotzAction>> channels = sequence.getChannels();
+		assertEquals(Arrays.asList(KarotzChannel.LED, KarotzChannel.SOUND, KarotzChannel.EARS),
+				new ArrayList<KarotzChannel>(channels.keySet()));
+		assertEquals(Arrays.asList(off, red), channels.get(KarotzChannel.LED));
+		assertEquals(Arrays.asList(speak), channels.get(KarotzChannel.SOUND));
+		assertEquals(Arrays.asList(ears), channels.get(KarotzChannel.EARS));
+	}
+
+	/**
+	 * Test of degrade method, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testDegrade() {
+		KarotzActionSequence sequence = new KarotzActionSequence();
+		KarotzAction fade = new LedFadeAction(LedColor.GREEN, 1000);
+		KarotzAction ears = new EarAction();
+		KarotzAction off = new LedOffAction();
+		KarotzAction red = new LedLightAction(LedColor.RED);
+		sequence.add(fade).add(ears).add(off).add(red);
+
+		assertEquals(Arrays.asList(fade, ears, off, red), sequence.degrade(KarotzDegradation.NONE, CONTEXT));
+		assertEquals(Arrays.asList(fade, ears, off, red),
+				sequence.degrade(KarotzDegradation.SHORT_SPEECH, CONTEXT));
+		// only the final color is shown
+		assertEquals(Arrays.asList(red, ears), sequence.degrade(KarotzDegradation.NO_BLINK, CONTEXT));
+		assertEquals(Arrays.asList(red), sequence.degrade(KarotzDegradation.LED_ONLY, CONTEXT));
+	}
+
+	/**
+	 * Test of execute method, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testExecute_Sequential() throws Exception {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		KarotzActionSequence sequence = new MockSequence(false);
+		sequence.add(new MockAction(KarotzChannel.LED, "led1", 0, log));
+		sequence.add(new MockAction(KarotzChannel.SOUND, "speak", 0, log));
+		sequence.add(new MockAction(KarotzChannel.LED, "led2", 0, log));
+
+		sequence.execute(CONTEXT);
+
+		assertEquals(Arrays.asList("led1", "speak", "led2"), log);
+	}
+
+	/**
+	 * Test of execute method, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testExecute_Concurrent() throws Exception {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		KarotzActionSequence sequence = new MockSequence(true);
+		sequence.add(new MockAction(KarotzChannel.LED, "led1", 300, log));
+		sequence.add(new MockAction(KarotzChannel.SOUND, "speak", 300, log));
+		sequence.add(new MockAction(KarotzChannel.LED, "led2", 0, log));
+		sequence.add(new MockAction(KarotzChannel.EARS, "ears", 300, log));
+
+		long start = System.currentTimeMillis();
+		sequence.execute(CONTEXT);
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(4, log.size());
+		assertTrue(log.indexOf("led1") < log.indexOf("led2"));
+		assertTrue("channels should overlap: " + elapsed, elapsed < 800);
+	}
+
+	/**
+	 * Test of execute method, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testExecute_ConcurrentFailure() throws Exception {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		KarotzActionSequence sequence = new MockSequence(true);
+		sequence.add(new MockAction(KarotzChannel.LED, "led", 0, log));
+		sequence.add(new MockAction(KarotzChannel.SOUND, null, 0, log));
+		sequence.add(new MockAction(KarotzChannel.SOUND, "speak", 0, log));
+
+		try {
+			sequence.execute(CONTEXT);
+			fail("failure of a channel should be reported");
+		} catch (KarotzException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		// the failed channel stops, the other one completes
+		assertEquals(Arrays.asList("led"), log);
+	}
+
+	/**
+	 * Test of execute method with a known LED, of class KarotzActionSequence.
+	 */
+	@Test
+	public void testExecute_Blink() throws Exception {
+		MockClient client = new MockClient("blink");
+		client.getShadow().setLed(KarotzDeviceShadow.LED_LIGHT, LedColor.RED.getCode());
+		KarotzActionSequence sequence = new MockSequence(false);
+		sequence.add(new LedOffAction()).add(new LedLightAction(LedColor.RED));
+		sequence.add(new LedOffAction()).add(new LedLightAction(LedColor.RED));
+
+		sequence.execute(new KarotzContext(null, null, null, client));
+
+		// each light follows an off, so none of them is skipped
+		assertEquals(4, client.requests.size());
+		assertTrue(client.getShadow().isLed(KarotzDeviceShadow.LED_LIGHT, LedColor.RED.getCode()));
+
+		// the LED already being red, lighting it again is skipped
+		client.requests.clear();
+		sequence = new MockSequence(false);
+		sequence.add(new LedLightAction(LedColor.RED)).add(new LedOffAction());
+		sequence.execute(new KarotzContext(null, null, null, client));
+		assertEquals(1, client.requests.size());
+	}
+
+	private static class MockSequence extends KarotzActionSequence {
+
+		private final boolean concurrent;
+
+		MockSequence(boolean concurrent) {
+			this.concurrent = concurrent;
+		}
+
+		@Override
+		protected boolean isConcurrent(KarotzContext context) {
+			return concurrent;
+		}
+	}
+
+	/**
+	 * Client always in interactive mode, without any Karotz behind it.
+	 */
+	private static class MockClient extends KarotzClient {
+
+		private final List<String> requests = new ArrayList<String>();
+
+		MockClient(String installId) {
+			super("apiKey", "secretKey", installId);
+		}
+
+		@Override
+		public String getInteractiveId() {
+			return "session";
+		}
+
+		@Override
+		public String doRequest(String url) {
+			requests.add(url);
+			return "<VoosMsg><response><code>OK</code></response></VoosMsg>";
+		}
+
+		@Override
+		public void startInteractiveMode() {
+		}
+
+		@Override
+		public void stopInteractiveMode() {
+		}
+	}
+
+	private static class MockAction extends KarotzAction {
+
+		private final KarotzChannel channel;
+
+		private final String name;
+
+		private final long sleep;
+
+		private final List<String> log;
+
+		MockAction(KarotzChannel channel, String name, long sleep, List<String> log) {
+			this.channel = channel;
+			this.name = name;
+			this.sleep = sleep;
+			this.log = log;
+		}
+
+		@Override
+		public void send(KarotzClient client) throws KarotzException {
+			if (name == null) {
+				throw new KarotzException("failed");
+			}
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				throw new KarotzException(e);
+			}
+			log.add(name);
+		}
+
+		@Override
+		public String getBaseUrl() {
+			return "url";
+		}
+
+		@Override
+		public Map<String, String> getParameters() {
+			return new HashMap<String, String>();
+		}
+
+		@Override
+		public long getDuration() {
+			return sleep;
+		}
+
+		@Override
+		public KarotzChannel getChannel() {
+			return channel;
+		}
+	}
+}
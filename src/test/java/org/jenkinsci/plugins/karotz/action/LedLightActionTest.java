@@ -25,6 +25,8 @@ package org.jenkinsci.plugins.karotz.action;
 
 import java.util.Map;
 import static org.junit.Assert.*;
+
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
 import org.junit.Test;
 
 /**
@@ -63,4 +65,19 @@ public class LedLightActionTest {
         assertEquals("light", params.get("action"));
         assertEquals("FF0000", params.get("color"));
     }
+
+    /**
+     * Test of isNoOp method, of class LedLightAction.
+     */
+    @Test
+    public void testIsNoOp() {
+        KarotzDeviceShadow shadow = KarotzDeviceShadow.forInstallId("LedLightActionTest");
+        LedLightAction action = new LedLightAction(LedColor.BLUE);
+        assertFalse(action.isNoOp(shadow));
+
+        action.update(shadow);
+        assertTrue(action.isNoOp(shadow));
+        assertFalse(new LedLightAction(LedColor.RED).isNoOp(shadow));
+        assertFalse(new LedOffAction().isNoOp(shadow));
+    }
 }
@@ -23,7 +23,12 @@
  */
 package org.jenkinsci.plugins.karotz.action;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import hudson.model.Result;
+import org.jenkinsci.plugins.karotz.KarotzDeviceShadow;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -50,4 +55,54 @@ public class SpeakActionTest {
         assertEquals("text", params.get("text"));
         assertEquals("EN", params.get("lang"));
     }
+
+    /**
+     * Test of split method, of class SpeakAction.
+     */
+    @Test
+    public void testSplit() {
+        assertEquals(Arrays.asList("Failure of build 12.", "Committed by bob: fix the build!"),
+                SpeakAction.split(" Failure of build 12. Committed by bob: fix the build! ", 200));
+        assertEquals(Arrays.asList("Failure of build 12.", "Committed by bob:", "fix the build!"),
+                SpeakAction.split("Failure of build 12. Committed by bob: fix the build!", 20));
+
+        List<String> chunks = SpeakAction.split("one two three four", 9);
+        assertEquals(Arrays.asList("one two", "three", "four"), chunks);
+        assertEquals(Arrays.asList("abcde", "fgh"), SpeakAction.split("abcdefgh", 5));
+        assertTrue(SpeakAction.split("  ", 5).isEmpty());
+    }
+
+    /**
+     * Test of update method, of class SpeakAction.
+     */
+    @Test
+    public void testUpdate() {
+        SpeakAction action = new SpeakAction("Failure of build 12. Committed by bob.", "EN");
+        KarotzDeviceShadow shadow = KarotzDeviceShadow.forInstallId("SpeakActionTest");
+        Map<String, String> params = action.getParameters();
+        params.put("text", "Failure of build 12.");
+
+        long before = System.currentTimeMillis();
+        action.update(shadow, params);
+
+        // the Karotz says the chunk, not the whole text
+        long duration = shadow.getSpeakingUntil() - before;
+        assertTrue(duration >= 20 * 120 && duration < action.getDuration());
+    }
+
+    /**
+     * Test of statusOf method, of class SpeakAction.
+     */
+    @Test
+    public void testStatusOf() {
+        // the event wins over the result of a build already over
+        assertEquals("started", SpeakAction.statusOf(KarotzEvent.START, Result.SUCCESS));
+        assertEquals("recovered", SpeakAction.statusOf(KarotzEvent.RECOVER, Result.SUCCESS));
+        assertEquals("failed", SpeakAction.statusOf(KarotzEvent.FAILURE, null));
+
+        assertEquals("unstable", SpeakAction.statusOf(null, Result.UNSTABLE));
+        assertEquals("aborted", SpeakAction.statusOf(null, Result.ABORTED));
+        assertNull(SpeakAction.statusOf(null, null));
+        assertNull(SpeakAction.statusOf(null, Result.NOT_BUILT));
+    }
 }
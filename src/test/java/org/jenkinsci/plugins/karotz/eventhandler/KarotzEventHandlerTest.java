@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.eventhandler;
+
+import static org.junit.Assert.assertSame;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+
+import java.io.PrintStream;
+
+import org.jenkinsci.plugins.karotz.KarotzContext;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.junit.Test;
+
+/**
+ * Test for KarotzEventHandler
+ */
+public class KarotzEventHandlerTest {
+
+	@Test
+	public void testLegacyCallbacks() throws Exception {
+		BuildListener listener = new BuildListener() {
+			public PrintStream getLogger() {
+				return System.out;
+			}
+		};
+		LegacyHandler handler = new LegacyHandler();
+
+		handler.onFailure(new KarotzContext(null, listener, null, null));
+
+		assertSame(listener, handler.failed);
+	}
+
+	@Test(expected = AbstractMethodError.class)
+	public void testMissingCallback() throws Exception {
+		new LegacyHandler().onSuccess(new KarotzContext(null, null, null, null));
+	}
+
+	/**
+	 * A handler written against the build and listener callbacks.
+	 */
+	private static class LegacyHandler extends KarotzEventHandler {
+
+		private BuildListener failed;
+
+		@Override
+		public void onFailure(AbstractBuild<?, ?> build, BuildListener listener) throws KarotzException {
+			failed = listener;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.eventhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.jenkinsci.plugins.karotz.KarotzException;
+import org.jenkinsci.plugins.karotz.action.KarotzAction;
+import org.jenkinsci.plugins.karotz.action.LedLightAction;
+import org.jenkinsci.plugins.karotz.action.LedOffAction;
+import org.jenkinsci.plugins.karotz.action.SpeakAction;
+import org.junit.Test;
+
+/**
+ * Test for KarotzScriptEventHandler
+ */
+public class KarotzScriptEventHandlerTest {
+
+	/**
+	 * Test of build method, of class KarotzScriptEventHandler.
+	 */
+	@Test
+	public void testBuild() throws Exception {
+		KarotzScriptEventHandler handler = new KarotzScriptEventHandler(
+				"if (event == 'FAILURE') { blink 'RED', 2; speak 'Failure' } else { light '00FF00' }", 0);
+		assertEquals(KarotzScriptEventHandler.DEFAULT_TIMEOUT, handler.getTimeout());
+
+		List<KarotzAction> actions = handler.build(null, KarotzEvent.FAILURE).getActions();
+		assertEquals(5, actions.size());
+		assertTrue(actions.get(0) instanceof LedOffAction);
+		assertTrue(actions.get(3) instanceof LedLightAction);
+		assertTrue(actions.get(4) instanceof SpeakAction);
+
+		actions = handler.build(null, KarotzEvent.SUCCESS).getActions();
+		assertEquals(1, actions.size());
+		assertEquals("00FF00", actions.get(0).getParameters().get("color"));
+	}
+
+	/**
+	 * Test of compile method, of class KarotzScriptCache.
+	 */
+	@Test
+	public void testCache() throws Exception {
+		KarotzScriptCache.clear();
+		Class<? extends KarotzScript> script = KarotzScriptCache.compile("light 'BLUE'");
+		assertSame(script, KarotzScriptCache.compile("light 'BLUE'"));
+		assertEquals(1, KarotzScriptCache.size());
+		KarotzScriptCache.compile("light 'RED'");
+		assertEquals(2, KarotzScriptCache.size());
+	}
+
+	/**
+	 * Test of the sandbox of the scripts.
+	 */
+	@Test
+	public void testSandbox() throws Exception {
+		assertRejected("System.exit(0)");
+		assertRejected("new File('/tmp/x').text");
+		assertRejected("import java.io.File\nlight 'RED'");
+		assertRejected("''.class.forName('java.lang.Runtime')");
+		assertRejected("'ls'.execute()");
+		assertRejected("def f() { }\nf()");
+		assertRejected("java.lang.Runtime.getRuntime()");
+		// plain expressions are fine
+		KarotzScriptCache.compile("def n = Math.max(2, 3)\nfor (i in 1..n) { off() }");
+	}
+
+	/**
+	 * Test of the timeout of the scripts.
+	 */
+	@Test
+	public void testTimeout() throws Exception {
+		KarotzScriptEventHandler handler = new KarotzScriptEventHandler("while (true) { }", 1);
+		long start = System.currentTimeMillis();
+		try {
+			handler.build(null, KarotzEvent.START);
+			fail("the script should have been stopped");
+		} catch (KarotzException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("1 seconds"));
+		}
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		handler = new KarotzScriptEventHandler("for (i in 1..1000) { off() }", 1);
+		try {
+			handler.build(null, KarotzEvent.START);
+			fail("the sequence should be limited");
+		} catch (KarotzException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("" + KarotzScript.MAX_ACTIONS));
+		}
+	}
+
+	private static void assertRejected(String script) {
+		try {
+			KarotzScriptCache.compile(script);
+			fail("should be rejected: " + script);
+		} catch (KarotzException e) {
+			// expected
+		}
+	}
+}
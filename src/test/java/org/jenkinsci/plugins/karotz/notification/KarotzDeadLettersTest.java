@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.junit.Test;
+
+/**
+ * Test for KarotzDeadLetters
+ */
+public class KarotzDeadLettersTest {
+
+	/**
+	 * Test of latestPerJob method, of class KarotzDeadLetters.
+	 */
+	@Test
+	public void testLatestPerJob() {
+		KarotzDeadLetter a1 = letter("a", 1, KarotzEvent.FAILURE, 10);
+		KarotzDeadLetter b7 = letter("b", 7, KarotzEvent.UNSTABLE, 20);
+		KarotzDeadLetter a3 = letter("a", 3, KarotzEvent.START, 30);
+		KarotzDeadLetter a3Failure = letter("a", 3, KarotzEvent.FAILURE, 40);
+		KarotzDeadLetter a2 = letter("a", 2, KarotzEvent.SUCCESS, 50);
+
+		List<KarotzDeadLetter> latest = KarotzDeadLetters.latestPerJob(Arrays.asList(a1, b7, a3, a3Failure, a2));
+		assertEquals(Arrays.asList(a3Failure, b7), latest);
+	}
+
+	private static KarotzDeadLetter letter(String job, int number, KarotzEvent event, long createdAt) {
+		return new KarotzDeadLetter(new KarotzNotification(job, number, event, createdAt), "[code] ERROR", createdAt);
+	}
+}
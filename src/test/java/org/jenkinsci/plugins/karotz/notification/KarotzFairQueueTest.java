@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.junit.Test;
+
+/**
+ * Test for KarotzFairQueue
+ */
+public class KarotzFairQueueTest {
+
+	private static final Map<String, Integer> NO_WEIGHTS = Collections.emptyMap();
+
+	/**
+	 * Test of schedule method, of class KarotzFairQueue.
+	 */
+	@Test
+	public void testSchedule() {
+		List<KarotzNotification> window = new ArrayList<KarotzNotification>();
+		for (int i = 1; i <= 4; i++) {
+			window.add(notification("noisy", i));
+		}
+		window.add(notification("a", 1));
+		window.add(notification("b", 1));
+
+		KarotzFairQueue queue = new KarotzFairQueue();
+		assertEquals("[noisy#1, a#1, b#1, noisy#2, noisy#3]",
+				ids(queue.schedule(window, KarotzFairQueue.JOB, NO_WEIGHTS, 5)));
+
+		// the rounds go on from where they stopped
+		window.remove(0);
+		assertEquals("[a#1, b#1, noisy#2]",
+				ids(queue.schedule(window, KarotzFairQueue.JOB, NO_WEIGHTS, 3)));
+	}
+
+	/**
+	 * Test of schedule method with weights and folders, of class KarotzFairQueue.
+	 */
+	@Test
+	public void testWeights() {
+		List<KarotzNotification> window = new ArrayList<KarotzNotification>();
+		window.add(notification("team/x", 1));
+		window.add(notification("team/y", 1));
+		window.add(notification("team/x", 2));
+		window.add(notification("other", 1));
+		window.add(notification("other", 2));
+
+		Map<String, Integer> weights = KarotzFairQueue.parseWeights("# comment\nteam = 2\n");
+		assertEquals("[team/x#1, team/y#1, other#1, team/x#2, other#2]",
+				ids(new KarotzFairQueue().schedule(window, KarotzFairQueue.FOLDER, weights, 10)));
+	}
+
+	/**
+	 * Test of schedule method with idle flows, of class KarotzFairQueue.
+	 */
+	@Test
+	public void testIdleFlows() {
+		KarotzFairQueue queue = new KarotzFairQueue();
+		assertEquals("[a#1]", ids(queue.schedule(Arrays.asList(notification("a", 1), notification("b", 1)),
+				KarotzFairQueue.JOB, NO_WEIGHTS, 1)));
+		// b is not pending anymore, e.g. replaced, and leaves the rounds
+		assertEquals("[a#2]", ids(queue.schedule(Arrays.asList(notification("a", 2)),
+				KarotzFairQueue.JOB, NO_WEIGHTS, 1)));
+		// and joins them again at the end
+		assertEquals("[a#3, b#2]", ids(queue.schedule(Arrays.asList(notification("b", 2), notification("a", 3)),
+				KarotzFairQueue.JOB, NO_WEIGHTS, 2)));
+	}
+
+	/**
+	 * Test of getFlows method, of class KarotzFairQueue.
+	 */
+	@Test
+	public void testIdleStatistics() {
+		KarotzFairQueue queue = new KarotzFairQueue();
+		for (int i = 0; i < KarotzFairQueue.MAX_IDLE_FLOWS + 10; i++) {
+			queue.sent(notification("job" + i, 1), KarotzFairQueue.JOB);
+		}
+		List<KarotzFairQueue.Flow> flows = queue.getFlows();
+		assertEquals(KarotzFairQueue.MAX_IDLE_FLOWS, flows.size());
+		// the least recently active flows are forgotten
+		assertEquals("job10", flows.get(0).getName());
+	}
+
+	/**
+	 * Test of sent method, of class KarotzFairQueue.
+	 */
+	@Test
+	public void testStatistics() {
+		KarotzFairQueue queue = new KarotzFairQueue();
+		long now = System.currentTimeMillis();
+		queue.sent(new KarotzNotification("job", 1, KarotzEvent.SUCCESS, now - 1000), KarotzFairQueue.JOB);
+		queue.sent(new KarotzNotification("job", 2, KarotzEvent.SUCCESS, now - 3000), KarotzFairQueue.JOB);
+		queue.dropped(notification("job", 3), KarotzFairQueue.JOB);
+
+		KarotzFairQueue.Flow flow = queue.getFlows().get(0);
+		assertEquals("job", flow.getName());
+		assertEquals(2, flow.getSent());
+		assertEquals(1, flow.getDropped());
+		assertEquals(2000, flow.getAverageWait(), 100);
+		assertEquals(3000, flow.getMaxWait(), 100);
+	}
+
+	/**
+	 * Test of parseWeights method, of class KarotzFairQueue.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWeight() {
+		KarotzFairQueue.parseWeights("job=0");
+	}
+
+	private static KarotzNotification notification(String job, int number) {
+		return new KarotzNotification(job, number, KarotzEvent.FAILURE, 0L);
+	}
+
+	private static String ids(List<KarotzNotification> notifications) {
+		List<String> ids = new ArrayList<String>();
+		for (KarotzNotification notification : notifications) {
+			ids.add(notification.getJobName() + "#" + notification.getBuildNumber());
+		}
+		return ids.toString();
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jenkinsci.plugins.karotz.KarotzDegradation;
+import org.junit.Test;
+
+/**
+ * Test for KarotzLoadShedder
+ */
+public class KarotzLoadShedderTest {
+
+	/**
+	 * Test of update method, of class KarotzLoadShedder.
+	 */
+	@Test
+	public void testUpdate() {
+		KarotzLoadShedder shedder = new KarotzLoadShedder(new int[] { 10, 20, 40, 80 },
+				new long[] { 1000, 2000, 5000, 10000 });
+		assertEquals(KarotzDegradation.NONE, shedder.update(5, 500));
+		assertEquals(KarotzDegradation.SHORT_SPEECH, shedder.update(10, 0));
+		// straight to the level reached, by depth or by age
+		assertEquals(KarotzDegradation.LED_ONLY, shedder.update(0, 5000));
+		assertEquals(KarotzDegradation.DROP_STALE_SUCCESS, shedder.update(100, 0));
+
+		// back one level at a time, under half of the thresholds
+		assertEquals(KarotzDegradation.DROP_STALE_SUCCESS, shedder.update(50, 0));
+		assertEquals(KarotzDegradation.LED_ONLY, shedder.update(30, 0));
+		assertEquals(KarotzDegradation.LED_ONLY, shedder.update(30, 0));
+		assertEquals(KarotzDegradation.NO_BLINK, shedder.update(15, 0));
+		assertEquals(KarotzDegradation.NO_BLINK, shedder.update(5, 1500));
+		assertEquals(KarotzDegradation.SHORT_SPEECH, shedder.update(5, 0));
+		assertEquals(KarotzDegradation.NONE, shedder.update(0, 0));
+		assertEquals(KarotzDegradation.NONE, shedder.getLevel());
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011, Seiji Sogabe
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.karotz.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.karotz.KarotzEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for KarotzOutbox
+ */
+public class KarotzOutboxTest {
+
+	private static final Set<String> NONE = Collections.emptySet();
+
+	private File dir;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("karotz-outbox", "");
+		dir.delete();
+		dir.mkdirs();
+		file = new File(dir, "outbox.journal");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Test of put, ack and pending methods, of class KarotzOutbox.
+	 */
+	@Test
+	public void testPutAndAck() throws Exception {
+		KarotzOutbox outbox = new KarotzOutbox(file, 1024, 4096);
+		KarotzNotification first = notification("job", 1);
+		KarotzNotification second = notification("job", 2);
+		assertTrue(outbox.put(first));
+		assertTrue(outbox.put(second));
+		// a notification stored twice is delivered once
+		assertTrue(outbox.put(first));
+
+		List<KarotzNotification> pending = outbox.pending(10, NONE);
+		assertEquals(2, pending.size());
+		assertEquals("job#1:FAILURE", pending.get(0).getId());
+		assertEquals("job#2:FAILURE", pending.get(1).getId());
+		assertEquals(1, outbox.pending(1, NONE).size());
+		assertEquals(1, outbox.pending(10, Collections.singleton(first.getId())).size());
+
+		assertTrue(outbox.ack(first));
+		pending = outbox.pending(10, NONE);
+		assertEquals(1, pending.size());
+		assertEquals("job#2:FAILURE", pending.get(0).getId());
+
+		// a notification appended again after its acknowledgement is pending
+		assertTrue(outbox.put(first));
+		assertEquals(2, outbox.getPendingCount());
+		outbox.close();
+	}
+
+	/**
+	 * Test of the replay of a journal, of class KarotzOutbox.
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		KarotzOutbox outbox = new KarotzOutbox(file, 1024, 4096);
+		outbox.put(notification("job", 1));
+		outbox.put(notification("job", 2));
+		outbox.ack(notification("job", 1));
+		int size = outbox.getSize();
+		outbox.close();
+
+		// a record torn by a crash is discarded
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(size);
+		raf.writeInt(40);
+		raf.writeLong(12345);
+		raf.writeByte(1);
+		raf.close();
+
+		outbox = new KarotzOutbox(file, 1024, 4096);
+		assertEquals(size, outbox.getSize());
+		List<KarotzNotification> pending = outbox.pending(10, NONE);
+		assertEquals(1, pending.size());
+		assertEquals("job#2:FAILURE", pending.get(0).getId());
+		assertEquals(KarotzEvent.FAILURE, pending.get(0).getEvent());
+		assertEquals(123L, pending.get(0).getCreatedAt());
+
+		// new records are appended after the last valid one
+		outbox.put(notification("job", 3));
+		outbox.close();
+		outbox = new KarotzOutbox(file, 1024, 4096);
+		assertEquals(2, outbox.getPendingCount());
+		outbox.close();
+	}
+
+	/**
+	 * Test of the compaction of a full journal, of class KarotzOutbox.
+	 */
+	@Test
+	public void testCompaction() throws Exception {
+		KarotzOutbox outbox = new KarotzOutbox(file, 256, 1024);
+		for (int i = 0; i < 100; i++) {
+			KarotzNotification notification = notification("job", i);
+			assertTrue(outbox.put(notification));
+			assertTrue(outbox.ack(notification));
+		}
+		assertEquals(256, outbox.getCapacity());
+		assertEquals(0, outbox.getPendingCount());
+
+		// the journal grows up to its maximum size, then is full
+		int count = 0;
+		while (outbox.put(notification("other", count))) {
+			count++;
+		}
+		assertEquals(1024, outbox.getCapacity());
+		assertEquals(count, outbox.getPendingCount());
+		List<KarotzNotification> pending = outbox.pending(count, NONE);
+		assertEquals("other#0:FAILURE", pending.get(0).getId());
+		assertEquals("other#" + (count - 1) + ":FAILURE", pending.get(count - 1).getId());
+		assertFalse(outbox.put(notification("other", count)));
+		outbox.close();
+
+		outbox = new KarotzOutbox(file, 256, 1024);
+		assertEquals(count, outbox.getPendingCount());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		outbox.close();
+	}
+
+	/**
+	 * Test of pending by group and overflow methods, of class KarotzOutbox.
+	 */
+	@Test
+	public void testGroups() throws Exception {
+		KarotzOutbox outbox = new KarotzOutbox(file, 1024, 4096);
+		for (int i = 1; i <= 5; i++) {
+			outbox.put(notification("noisy", i));
+		}
+		outbox.put(notification("quiet", 1));
+
+		List<KarotzNotification> pending = outbox.pending(10, NONE, KarotzFairQueue.JOB, 2);
+		assertEquals(3, pending.size());
+		assertEquals("noisy#1:FAILURE", pending.get(0).getId());
+		assertEquals("noisy#2:FAILURE", pending.get(1).getId());
+		assertEquals("quiet#1:FAILURE", pending.get(2).getId());
+
+		List<KarotzNotification> overflow = outbox.overflow(KarotzFairQueue.JOB, 3, 10);
+		assertEquals(2, overflow.size());
+		assertEquals("noisy#1:FAILURE", overflow.get(0).getId());
+		assertEquals("noisy#2:FAILURE", overflow.get(1).getId());
+		assertEquals(1, outbox.overflow(KarotzFairQueue.JOB, 3, 1).size());
+		assertTrue(outbox.overflow(KarotzFairQueue.JOB, 5, 10).isEmpty());
+
+		assertEquals(5, outbox.pending(KarotzFairQueue.JOB, "noisy").size());
+		assertTrue(outbox.isPending(notification("quiet", 1)));
+		outbox.ack(notification("quiet", 1));
+		assertFalse(outbox.isPending(notification("quiet", 1)));
+		assertTrue(outbox.pending(KarotzFairQueue.JOB, "quiet").isEmpty());
+		assertFalse(outbox.isPending(notification("other", 1)));
+
+		// the groups follow the notifications appended since
+		outbox.put(notification("noisy", 6));
+		pending = outbox.pending(KarotzFairQueue.JOB, "noisy");
+		assertEquals(6, pending.size());
+		assertEquals("noisy#6:FAILURE", pending.get(5).getId());
+		assertEquals(3, outbox.overflow(KarotzFairQueue.JOB, 3, 10).size());
+		outbox.close();
+	}
+
+	/**
+	 * Test of opening an outbox whose journal was being replaced, of class
+	 * KarotzOutbox.
+	 */
+	@Test
+	public void testInterruptedReplace() throws Exception {
+		KarotzOutbox outbox = new KarotzOutbox(file, 1024, 4096);
+		outbox.put(notification("job", 1));
+		outbox.close();
+		// stopped once the journal was moved aside, before the new one was in place
+		assertTrue(file.renameTo(new File(file.getPath() + ".old")));
+
+		outbox = new KarotzOutbox(file, 1024, 4096);
+		assertEquals(1, outbox.getPendingCount());
+		outbox.close();
+	}
+
+	private static KarotzNotification notification(String job, int number) {
+		return new KarotzNotification(job, number, KarotzEvent.FAILURE, 123L);
+	}
+}